@@ -5,6 +5,7 @@ import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
 import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * RAG Service Spring Boot Application
@@ -18,6 +19,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 @EnableJpaRepositories(basePackages = "com.example.rag.repository")
 @EnableElasticsearchRepositories(basePackages = "com.example.rag.repository")
 @EnableAsync
+@EnableScheduling
 public class RagServiceApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,112 @@
+package com.example.rag.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 异步任务线程池配置
+ */
+@Configuration
+public class AsyncConfig {
+
+    /**
+     * 文档入库工作线程池
+     *
+     * 线程数即并发入库任务数；排队由数据库中的任务表承担，这里只保留很小的交接队列
+     */
+    @Bean(name = "ingestionExecutor")
+    public ThreadPoolTaskExecutor ingestionExecutor(@Value("${app.ingestion.workers:2}") int workers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers);
+        executor.setThreadNamePrefix("ingest-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 入库流水线阶段线程池
+     *
+     * 所有入库任务共享；每个运行中的流水线占用 embed-workers + index-workers 个阶段线程直到结束，
+     * 线程数按并发入库任务数预留，各任务的阶段不互相等待
+     */
+    @Bean(name = "pipelineStageExecutor")
+    public ThreadPoolTaskExecutor pipelineStageExecutor(
+            @Value("${app.ingestion.workers:2}") int workers,
+            @Value("${app.ingestion.pipeline.embed-workers:2}") int embedWorkers,
+            @Value("${app.ingestion.pipeline.index-workers:1}") int indexWorkers) {
+        int threads = workers * (embedWorkers + indexWorkers);
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("ingest-stage-");
+        executor.setWaitForTasksToCompleteOnShutdown(false);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 向量化请求线程池
+     *
+     * 所有入库任务共享，线程数即同时发往Ollama的embedding请求数，应与OLLAMA_NUM_PARALLEL一致；
+     * 等待队列有界，队列满时提交方阻塞等待，入库速度受Ollama处理能力约束
+     */
+    @Bean(name = "embeddingExecutor")
+    public ThreadPoolTaskExecutor embeddingExecutor(@Value("${app.embedding.concurrency:4}") int concurrency,
+                                                    @Value("${app.embedding.queue-capacity:16}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(concurrency);
+        executor.setMaxPoolSize(concurrency);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("embed-");
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            if (pool.isShutdown()) {
+                throw new RejectedExecutionException("向量化线程池已关闭");
+            }
+            try {
+                pool.getQueue().put(task);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("等待向量化线程池被中断", e);
+            }
+        });
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * PDF页码范围提取线程池
+     *
+     * 所有入库任务共享；未配置时使用全部CPU核数
+     */
+    @Bean(name = "pdfExtractionExecutor")
+    public ThreadPoolTaskExecutor pdfExtractionExecutor(@Value("${app.ingestion.pdf.parallelism:0}") int parallelism) {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setThreadNamePrefix("pdf-extract-");
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * 流式查询编排线程
+     *
+     * 每个请求一个虚拟线程，阻塞在ES和Ollama上时不占用平台线程；编排线程总数和各路由的并发由
+     * StreamAdmissionService 在提交前检查，这里不设并发上限，以免提交时阻塞请求线程
+     */
+    @Bean(name = "streamExecutor")
+    public SimpleAsyncTaskExecutor streamExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("stream-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+}
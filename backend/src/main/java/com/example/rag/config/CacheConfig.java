@@ -0,0 +1,53 @@
+package com.example.rag.config;
+
+import com.example.rag.dto.SmartQueryResponse;
+import com.example.rag.service.AnswerCacheService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.cache.RedisCacheManagerBuilderCustomizer;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+
+/**
+ * 缓存配置
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /**
+     * 二进制值的Redis模板，用于存储向量等紧凑数据
+     */
+    @Bean
+    public RedisTemplate<String, byte[]> binaryRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, byte[]> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(StringRedisSerializer.UTF_8);
+        template.setValueSerializer(RedisSerializer.byteArray());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * 问答结果缓存以JSON保存，过期时间单独配置
+     */
+    @Bean
+    public RedisCacheManagerBuilderCustomizer answerCacheCustomizer(
+            @Value("${app.answer-cache.ttl:3600s}") Duration ttl) {
+        return builder -> builder.withCacheConfiguration(AnswerCacheService.CACHE_NAME,
+                RedisCacheConfiguration.defaultCacheConfig()
+                        .entryTtl(ttl)
+                        .prefixCacheNameWith("rag:")
+                        .serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(
+                                new Jackson2JsonRedisSerializer<>(SmartQueryResponse.class))));
+    }
+}
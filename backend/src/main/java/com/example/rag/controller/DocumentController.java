@@ -1,21 +1,32 @@
 package com.example.rag.controller;
 
 import com.example.rag.dto.DocumentUploadRequest;
+import com.example.rag.dto.DocumentUploadResponse;
+import com.example.rag.exception.IngestionQueueFullException;
+import com.example.rag.model.ChunkDeadLetter;
 import com.example.rag.model.Document;
 import com.example.rag.model.DocumentChunk;
+import com.example.rag.model.IngestionJob;
 import com.example.rag.model.User;
+import com.example.rag.service.ChunkDeadLetterService;
+import com.example.rag.service.DocumentRetryService;
 import com.example.rag.service.DocumentService;
+import com.example.rag.service.IngestionJobService;
+import com.example.rag.service.VectorIndexService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.validation.Valid;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -29,6 +40,10 @@ import java.util.Optional;
 public class DocumentController {
     
     private final DocumentService documentService;
+    private final IngestionJobService ingestionJobService;
+    private final ChunkDeadLetterService chunkDeadLetterService;
+    private final DocumentRetryService documentRetryService;
+    private final VectorIndexService vectorIndexService;
     
     /**
      * 上传文档
@@ -50,15 +65,135 @@ public class DocumentController {
                     .autoProcess(autoProcess)
                     .build();
             
-            Document document = documentService.uploadDocument(request, user);
-            return ResponseEntity.ok(document);
+            DocumentUploadResponse response = ingestionJobService.submitUpload(request, user);
+            return ResponseEntity.accepted().body(response);
             
+        } catch (IngestionQueueFullException e) {
+            log.warn("入库队列已满，拒绝上传: {}", file.getOriginalFilename());
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(e.getMessage());
         } catch (Exception e) {
             log.error("文档上传失败", e);
             return ResponseEntity.badRequest().body("文档上传失败: " + e.getMessage());
         }
     }
     
+    /**
+     * 查询入库任务状态
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<IngestionJob> getIngestionJob(@PathVariable String jobId) {
+        try {
+            Optional<IngestionJob> job = ingestionJobService.getJob(jobId);
+            return job.map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+            
+        } catch (Exception e) {
+            log.error("获取入库任务失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    /**
+     * 查询文档的入库任务
+     */
+    @GetMapping("/{documentId}/jobs")
+    public ResponseEntity<List<IngestionJob>> getDocumentJobs(@PathVariable String documentId) {
+        try {
+            return ResponseEntity.ok(ingestionJobService.getJobsForDocument(documentId));
+            
+        } catch (Exception e) {
+            log.error("获取文档入库任务失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    /**
+     * 查询文档中未写入向量索引的分块
+     */
+    @GetMapping("/{documentId}/failed-chunks")
+    public ResponseEntity<List<ChunkDeadLetter>> getFailedChunks(@PathVariable String documentId) {
+        try {
+            return ResponseEntity.ok(chunkDeadLetterService.getForDocument(documentId));
+            
+        } catch (Exception e) {
+            log.error("获取失败分块失败", e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+    
+    /**
+     * 立即重试处理失败或已隔离的文档
+     */
+    @PostMapping("/{documentId}/retry")
+    public ResponseEntity<?> retryDocument(@PathVariable String documentId) {
+        try {
+            Optional<Document> document = documentService.getDocumentById(documentId);
+            if (document.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            Document.DocumentStatus status = document.get().getStatus();
+            if (status != Document.DocumentStatus.FAILED && status != Document.DocumentStatus.QUARANTINED) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("文档当前状态不需要重试: " + status);
+            }
+            
+            IngestionJob job = documentRetryService.retryNow(document.get());
+            return ResponseEntity.accepted().body(job);
+            
+        } catch (Exception e) {
+            log.error("重试文档失败", e);
+            return ResponseEntity.badRequest().body("重试文档失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 使用当前的分块参数和embedding模型重新处理全部文档
+     */
+    @PostMapping("/reprocess")
+    public ResponseEntity<?> reprocessCorpus() {
+        try {
+            int enqueued = ingestionJobService.reprocessCorpus();
+            return ResponseEntity.accepted().body(Map.of("enqueuedJobs", enqueued));
+            
+        } catch (Exception e) {
+            log.error("重新处理语料库失败", e);
+            return ResponseEntity.badRequest().body("重新处理语料库失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 查询向量索引的类型和迁移状态
+     */
+    @GetMapping("/vector-index")
+    public ResponseEntity<?> getVectorIndexStatus() {
+        try {
+            return ResponseEntity.ok(vectorIndexService.getStatus());
+            
+        } catch (Exception e) {
+            log.error("查询向量索引状态失败", e);
+            return ResponseEntity.badRequest().body("查询向量索引状态失败: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 按当前配置的向量索引类型重建索引，现有向量直接reindex，不重新向量化
+     */
+    @PostMapping("/vector-index/migrate")
+    public ResponseEntity<?> migrateVectorIndex() {
+        try {
+            if (!vectorIndexService.startMigration()) {
+                return ResponseEntity.status(HttpStatus.CONFLICT)
+                        .body("向量索引已是配置的类型或正在迁移");
+            }
+            return ResponseEntity.accepted().body(vectorIndexService.getStatus());
+            
+        } catch (Exception e) {
+            log.error("迁移向量索引失败", e);
+            return ResponseEntity.badRequest().body("迁移向量索引失败: " + e.getMessage());
+        }
+    }
+    
     /**
      * 获取用户文档列表
      */
@@ -112,12 +247,14 @@ public class DocumentController {
     }
     
     /**
-     * 获取文档块
+     * 获取文档块，默认不返回向量
      */
     @GetMapping("/{documentId}/chunks")
-    public ResponseEntity<List<DocumentChunk>> getDocumentChunks(@PathVariable String documentId) {
+    public ResponseEntity<List<DocumentChunk>> getDocumentChunks(
+            @PathVariable String documentId,
+            @RequestParam(defaultValue = "false") boolean includeEmbeddings) {
         try {
-            List<DocumentChunk> chunks = documentService.getDocumentChunks(documentId);
+            List<DocumentChunk> chunks = documentService.getDocumentChunks(documentId, includeEmbeddings);
             return ResponseEntity.ok(chunks);
             
         } catch (Exception e) {
@@ -0,0 +1,53 @@
+package com.example.rag.dto;
+
+import com.example.rag.model.Document;
+import com.example.rag.model.IngestionJob;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+/**
+ * 文档上传响应DTO
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DocumentUploadResponse {
+
+    private String documentId;
+
+    private String originalFilename;
+
+    private Long fileSize;
+
+    private String category;
+
+    private Document.DocumentStatus status;
+
+    /**
+     * 入库任务ID，未开启自动处理时为空
+     */
+    private String jobId;
+
+    private IngestionJob.JobStatus jobStatus;
+
+    /**
+     * 内容相同的已有文档ID，非空表示本次上传直接复用了其分块和向量
+     */
+    private String duplicateOf;
+
+    public static DocumentUploadResponse of(Document document, IngestionJob job) {
+        return DocumentUploadResponse.builder()
+                .documentId(document.getDocumentId())
+                .originalFilename(document.getOriginalFilename())
+                .fileSize(document.getFileSize())
+                .category(document.getCategory())
+                .status(document.getStatus())
+                .jobId(job != null ? job.getJobId() : null)
+                .jobStatus(job != null ? job.getStatus() : null)
+                .duplicateOf(document.getSourceDocumentId())
+                .build();
+    }
+}
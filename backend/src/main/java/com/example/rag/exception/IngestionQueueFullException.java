@@ -0,0 +1,17 @@
+package com.example.rag.exception;
+
+import lombok.Getter;
+
+/**
+ * 入库队列已满异常，控制器将其转换为 429 + Retry-After
+ */
+@Getter
+public class IngestionQueueFullException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    public IngestionQueueFullException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
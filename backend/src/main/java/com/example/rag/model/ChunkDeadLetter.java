@@ -0,0 +1,78 @@
+package com.example.rag.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 向量化失败的分块
+ *
+ * 分块已写入 document_chunks 但未写入向量索引，由定时任务按退避时间重试
+ */
+@Entity
+@Table(name = "chunk_dead_letters", indexes = {
+        @Index(name = "idx_chunk_dead_letters_chunk_id", columnList = "chunk_id", unique = true),
+        @Index(name = "idx_chunk_dead_letters_document_id", columnList = "document_id"),
+        @Index(name = "idx_chunk_dead_letters_status_retry", columnList = "status, next_retry_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ChunkDeadLetter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id", updatable = false, nullable = false)
+    private UUID id;
+
+    @Column(name = "chunk_id", nullable = false, length = 255)
+    private String chunkId;
+
+    @Column(name = "document_id", nullable = false, length = 255)
+    private String documentId;
+
+    @Column(name = "chunk_index")
+    private Integer chunkIndex;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20)
+    @Builder.Default
+    private DeadLetterStatus status = DeadLetterStatus.PENDING;
+
+    @Column(name = "attempts")
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", length = 1000)
+    private String lastError;
+
+    @Column(name = "next_retry_at")
+    private LocalDateTime nextRetryAt;
+
+    @Column(name = "created_at")
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "updated_at")
+    @Builder.Default
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    /**
+     * 死信状态枚举
+     */
+    public enum DeadLetterStatus {
+        PENDING,       // 等待重试
+        EXHAUSTED      // 重试次数已用尽，需人工处理
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
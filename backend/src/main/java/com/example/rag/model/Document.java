@@ -14,7 +14,9 @@ import java.util.UUID;
  * 文档实体类
  */
 @Entity
-@Table(name = "documents")
+@Table(name = "documents", indexes = {
+        @Index(name = "idx_documents_content_hash", columnList = "content_hash")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -64,6 +66,49 @@ public class Document {
     @Builder.Default
     private Integer chunksCount = 0;
     
+    /**
+     * 文件内容的SHA-256，用于识别重复上传
+     */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+    
+    /**
+     * 重复上传时指向实际持有分块和向量的文档ID，为空表示本文档自己持有
+     */
+    @Column(name = "source_document_id", length = 255)
+    private String sourceDocumentId;
+    
+    /**
+     * 入库断点：序号小于该值的分块已全部写入索引，为空表示没有未完成的入库
+     */
+    @Column(name = "checkpoint_chunk_index")
+    private Integer checkpointChunkIndex;
+    
+    /**
+     * 断点对应的分块参数（块大小/重叠），参数变化后断点作废
+     */
+    @Column(name = "checkpoint_chunking", length = 32)
+    private String checkpointChunking;
+    
+    /**
+     * 处理失败后已自动重试的次数
+     */
+    @Column(name = "retry_count")
+    @Builder.Default
+    private Integer retryCount = 0;
+    
+    /**
+     * 下次自动重试时间
+     */
+    @Column(name = "next_retry_at")
+    private LocalDateTime nextRetryAt;
+    
+    /**
+     * 最近一次处理失败的原因
+     */
+    @Column(name = "failure_reason", length = 1000)
+    private String failureReason;
+    
     // 暂时注释掉JSONB字段，等待依赖解决
     // @Type(JsonType.class)
     // @Column(name = "metadata", columnDefinition = "jsonb")
@@ -84,9 +129,18 @@ public class Document {
         PROCESSING,    // 处理中
         COMPLETED,     // 已完成
         FAILED,        // 处理失败
+        PARTIALLY_INDEXED, // 部分分块未写入向量索引，等待重试
+        QUARANTINED,   // 多次重试仍失败，已隔离
         DELETED        // 已删除
     }
     
+    /**
+     * 实际持有分块和向量的文档ID
+     */
+    public String storageDocumentId() {
+        return sourceDocumentId != null ? sourceDocumentId : documentId;
+    }
+    
     @PreUpdate
     public void preUpdate() {
         this.updatedAt = LocalDateTime.now();
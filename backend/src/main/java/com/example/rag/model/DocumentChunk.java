@@ -1,9 +1,11 @@
 package com.example.rag.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.elasticsearch.annotations.Document;
 import org.springframework.data.elasticsearch.annotations.Field;
 import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.KnnSimilarity;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
@@ -15,8 +17,10 @@ import java.util.Map;
 
 /**
  * 文档块实体类 - 存储在Elasticsearch中
+ *
+ * 索引由 VectorIndexService 按配置的向量索引类型创建，不使用自动建索引
  */
-@Document(indexName = "document_chunks")
+@Document(indexName = "document_chunks", createIndex = false)
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -32,7 +36,12 @@ public class DocumentChunk {
     @Field(type = FieldType.Text, analyzer = "standard")
     private String content;
     
-    @Field(type = FieldType.Dense_Vector, dims = 768)
+    /**
+     * 分块向量，单索引存储模式下入库时写入，kNN检索直接在本索引上进行；
+     * 不保存在 _source 中，查询结果里为空
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Field(type = FieldType.Dense_Vector, dims = 768, knnSimilarity = KnnSimilarity.COSINE)
     private List<Float> embedding;
     
     @Field(type = FieldType.Integer)
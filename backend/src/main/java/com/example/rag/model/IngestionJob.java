@@ -0,0 +1,107 @@
+package com.example.rag.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 文档入库任务实体类
+ *
+ * 数据库中的任务表即持久化队列，服务重启后未完成的任务会重新排队
+ */
+@Entity
+@Table(name = "ingestion_jobs", indexes = {
+        @Index(name = "idx_ingestion_jobs_status_created", columnList = "status, created_at"),
+        @Index(name = "idx_ingestion_jobs_status_lane_created", columnList = "status, lane, created_at"),
+        @Index(name = "idx_ingestion_jobs_document_id", columnList = "document_id")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IngestionJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "id", updatable = false, nullable = false)
+    private UUID id;
+
+    @Column(name = "job_id", unique = true, nullable = false, length = 255)
+    private String jobId;
+
+    @Column(name = "document_id", nullable = false, length = 255)
+    private String documentId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20)
+    @Builder.Default
+    private JobStatus status = JobStatus.QUEUED;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "lane", length = 20)
+    @Builder.Default
+    private JobLane lane = JobLane.NORMAL;
+
+    @Column(name = "attempts")
+    @Builder.Default
+    private Integer attempts = 0;
+
+    @Column(name = "error_message", length = 1000)
+    private String errorMessage;
+
+    /**
+     * 执行该任务的节点
+     */
+    @Column(name = "owner_node", length = 255)
+    private String ownerNode;
+
+    /**
+     * 执行节点最近一次续约的时间，超过租约时长未续约的任务视为节点已失联
+     */
+    @Column(name = "heartbeat_at")
+    private LocalDateTime heartbeatAt;
+
+    @Column(name = "started_at")
+    private LocalDateTime startedAt;
+
+    @Column(name = "finished_at")
+    private LocalDateTime finishedAt;
+
+    @Column(name = "created_at")
+    @Builder.Default
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "updated_at")
+    @Builder.Default
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    /**
+     * 任务状态枚举
+     */
+    public enum JobStatus {
+        RESERVED,      // 已占用队列名额，等待上传落盘
+        QUEUED,        // 排队中
+        RUNNING,       // 执行中
+        COMPLETED,     // 已完成
+        FAILED,        // 执行失败
+        CANCELLED      // 文档已删除，任务取消
+    }
+
+    /**
+     * 任务通道：后台通道优先级低于上传，且有单独的并发上限
+     */
+    public enum JobLane {
+        NORMAL,        // 用户上传
+        BACKGROUND     // 失败重试、语料库重新处理
+    }
+
+    @PreUpdate
+    public void preUpdate() {
+        this.updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.rag.repository;
+
+import com.example.rag.model.ChunkDeadLetter;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 向量化失败分块仓储接口
+ */
+@Repository
+public interface ChunkDeadLetterRepository extends JpaRepository<ChunkDeadLetter, UUID> {
+
+    /**
+     * 根据分块ID查找
+     */
+    Optional<ChunkDeadLetter> findByChunkId(String chunkId);
+
+    /**
+     * 查找文档的所有失败分块
+     */
+    List<ChunkDeadLetter> findByDocumentIdOrderByChunkIndexAsc(String documentId);
+
+    /**
+     * 按重试时间顺序查找到期的失败分块
+     */
+    List<ChunkDeadLetter> findByStatusAndNextRetryAtBeforeOrderByNextRetryAtAsc(
+            ChunkDeadLetter.DeadLetterStatus status, LocalDateTime now, Pageable pageable);
+
+    /**
+     * 统计文档的失败分块数量
+     */
+    long countByDocumentId(String documentId);
+
+    /**
+     * 删除指定分块的记录
+     */
+    @Transactional
+    long deleteByChunkIdIn(Collection<String> chunkIds);
+
+    /**
+     * 删除文档的所有失败分块
+     */
+    @Transactional
+    long deleteByDocumentId(String documentId);
+}
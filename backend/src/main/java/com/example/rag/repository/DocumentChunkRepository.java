@@ -3,6 +3,7 @@ package com.example.rag.repository;
 import com.example.rag.model.DocumentChunk;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.annotations.SourceFilters;
 import org.springframework.data.elasticsearch.repository.ElasticsearchRepository;
 import org.springframework.stereotype.Repository;
 
@@ -10,33 +11,40 @@ import java.util.List;
 
 /**
  * 文档块仓储接口 - Elasticsearch
+ *
+ * 查询方法都不返回向量字段
  */
 @Repository
-public interface DocumentChunkRepository extends ElasticsearchRepository<DocumentChunk, String> {
+public interface DocumentChunkRepository extends ElasticsearchRepository<DocumentChunk, String>, DocumentChunkRepositoryCustom {
     
     /**
      * 根据文档ID查找所有块
      */
+    @SourceFilters(excludes = "embedding")
     List<DocumentChunk> findByDocumentId(String documentId);
     
     /**
      * 根据文档ID查找所有块（分页）
      */
+    @SourceFilters(excludes = "embedding")
     Page<DocumentChunk> findByDocumentId(String documentId, Pageable pageable);
     
     /**
      * 根据分类查找文档块
      */
+    @SourceFilters(excludes = "embedding")
     Page<DocumentChunk> findByCategory(String category, Pageable pageable);
     
     /**
      * 根据文档ID和块索引查找
      */
+    @SourceFilters(excludes = "embedding")
     DocumentChunk findByDocumentIdAndChunkIndex(String documentId, Integer chunkIndex);
     
     /**
      * 根据内容进行全文搜索
      */
+    @SourceFilters(excludes = "embedding")
     Page<DocumentChunk> findByContentContaining(String content, Pageable pageable);
     
     /**
@@ -52,5 +60,6 @@ public interface DocumentChunkRepository extends ElasticsearchRepository<Documen
     /**
      * 根据文档ID列表查找块
      */
+    @SourceFilters(excludes = "embedding")
     List<DocumentChunk> findByDocumentIdIn(List<String> documentIds);
 } 
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.example.rag.repository;
+
+import com.example.rag.model.DocumentChunk;
+
+import java.util.List;
+
+/**
+ * 文档块仓储扩展接口 - 批量写入与按查询删除
+ */
+public interface DocumentChunkRepositoryCustom {
+    
+    /**
+     * 使用bulk请求批量写入文档块
+     *
+     * 按条数和字节数上限切分请求，只重试被拒绝（429/5xx）的条目，其余错误直接抛出
+     */
+    void bulkIndex(List<DocumentChunk> chunks);
+    
+    /**
+     * 批量写入到指定的物理索引（向量索引迁移时使用）
+     */
+    void bulkIndex(List<DocumentChunk> chunks, String indexName);
+    
+    /**
+     * 用一次delete_by_query删除文档的所有块（单索引模式下向量一并删除）
+     *
+     * @return 删除的块数量
+     */
+    long deleteAllByDocumentId(String documentId);
+    
+    /**
+     * 用一次delete_by_query删除文档中序号不小于 fromChunkIndex 的块
+     *
+     * @return 删除的块数量
+     */
+    long deleteByDocumentIdFromChunkIndex(String documentId, int fromChunkIndex);
+    
+    /**
+     * 进入批量导入模式：暂停document_chunks索引的定时refresh
+     *
+     * 支持多个导入任务同时进入，最后一个退出时恢复原设置
+     */
+    void beginBulkIngest();
+    
+    /**
+     * 退出批量导入模式：恢复refresh_interval并立即refresh一次
+     *
+     * 进入时读到的已是导入设置（其他节点正在导入或上次导入中断）时重置为默认值
+     */
+    void endBulkIngest();
+    
+    /**
+     * 服务启动时检查上次批量导入是否未正常结束，是则将refresh_interval重置为默认值
+     */
+    void recoverBulkIngest();
+}
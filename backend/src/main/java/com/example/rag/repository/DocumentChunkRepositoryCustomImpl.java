@@ -0,0 +1,317 @@
+package com.example.rag.repository;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.Time;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.indices.GetIndicesSettingsResponse;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.service.VectorIndexWriteGate;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.document.Document;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文档块仓储扩展实现 - 基于Elasticsearch bulk API
+ */
+@RequiredArgsConstructor
+@Slf4j
+public class DocumentChunkRepositoryCustomImpl implements DocumentChunkRepositoryCustom {
+    
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final ElasticsearchClient elasticsearchClient;
+    private final RestClient restClient;
+    private final VectorIndexWriteGate vectorIndexWriteGate;
+    
+    @Value("${app.ingestion.bulk.batch-size:500}")
+    private int batchSize;
+    
+    @Value("${app.ingestion.bulk.max-bytes:5242880}")
+    private long maxBytes;
+    
+    @Value("${app.ingestion.bulk.max-retries:3}")
+    private int maxRetries;
+    
+    @Value("${app.ingestion.bulk.retry-backoff-ms:500}")
+    private long retryBackoffMs;
+    
+    @Value("${app.ingestion.bulk.ingest-refresh-interval:-1}")
+    private String ingestRefreshInterval;
+    
+    private final Object bulkIngestLock = new Object();
+    private int bulkIngestSessions = 0;
+    private String savedRefreshInterval;
+    
+    /**
+     * 待写入的条目
+     */
+    private record BulkItem(String id, Document source, long bytes) {
+    }
+    
+    @Override
+    public void bulkIndex(List<DocumentChunk> chunks) {
+        String indexName = indexName();
+        vectorIndexWriteGate.awaitWritable(indexName);
+        bulkIndex(chunks, indexName);
+    }
+    
+    @Override
+    public void bulkIndex(List<DocumentChunk> chunks, String indexName) {
+        if (chunks == null || chunks.isEmpty()) {
+            return;
+        }
+        
+        List<BulkItem> batch = new ArrayList<>();
+        long batchBytes = 0;
+        
+        for (DocumentChunk chunk : chunks) {
+            Document source = elasticsearchOperations.getElasticsearchConverter().mapObject(chunk);
+            long bytes = source.toJson().getBytes(StandardCharsets.UTF_8).length;
+            
+            if (!batch.isEmpty() && (batch.size() >= batchSize || batchBytes + bytes > maxBytes)) {
+                sendWithRetry(indexName, batch);
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            
+            batch.add(new BulkItem(chunk.getId(), source, bytes));
+            batchBytes += bytes;
+        }
+        
+        sendWithRetry(indexName, batch);
+    }
+    
+    @Override
+    public long deleteAllByDocumentId(String documentId) {
+        return deleteByQuery(documentId, Query.of(q -> q.term(t -> t.field("documentId").value(documentId))));
+    }
+    
+    @Override
+    public long deleteByDocumentIdFromChunkIndex(String documentId, int fromChunkIndex) {
+        return deleteByQuery(documentId, Query.of(q -> q.bool(b -> b
+                .filter(f -> f.term(t -> t.field("documentId").value(documentId)))
+                .filter(f -> f.range(r -> r.number(n -> n.field("chunkIndex").gte((double) fromChunkIndex)))))));
+    }
+    
+    /**
+     * 按查询删除；索引正在迁移（源索引禁止写入）时登记到迁移结束后执行，返回 0
+     */
+    private long deleteByQuery(String documentId, Query query) {
+        String indexName = indexName();
+        if (vectorIndexWriteGate.deferIfMigrating(indexName, documentId, () -> executeDeleteByQuery(indexName, query))) {
+            return 0;
+        }
+        return executeDeleteByQuery(indexName, query);
+    }
+    
+    private long executeDeleteByQuery(String indexName, Query query) {
+        try {
+            DeleteByQueryResponse response = elasticsearchClient.deleteByQuery(d -> d
+                    .index(indexName)
+                    .query(query)
+                    .conflicts(Conflicts.Proceed)
+                    .refresh(true));
+            if (!response.failures().isEmpty()) {
+                throw new IllegalStateException("删除文档块失败: " + response.failures().get(0).cause().reason());
+            }
+            return response.deleted() != null ? response.deleted() : 0;
+        } catch (IOException e) {
+            throw new IllegalStateException("删除文档块失败: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 发送一个bulk请求，只重试被拒绝的条目
+     */
+    private void sendWithRetry(String indexName, List<BulkItem> items) {
+        List<BulkItem> toSend = items;
+        
+        for (int attempt = 0; ; attempt++) {
+            List<BulkItem> retryable = new ArrayList<>();
+            List<String> fatal = new ArrayList<>();
+            
+            try {
+                BulkResponse response = elasticsearchClient.bulk(buildRequest(indexName, toSend));
+                if (!response.errors()) {
+                    return;
+                }
+                
+                List<BulkResponseItem> responseItems = response.items();
+                for (int i = 0; i < responseItems.size(); i++) {
+                    BulkResponseItem item = responseItems.get(i);
+                    if (item.error() == null) {
+                        continue;
+                    }
+                    if (item.status() == 429 || item.status() >= 500) {
+                        retryable.add(toSend.get(i));
+                    } else {
+                        fatal.add(item.id() + ": " + item.error().reason());
+                    }
+                }
+            } catch (IOException e) {
+                // 整个请求失败（连接中断、超时等），整批重试
+                log.warn("bulk请求失败，整批重试: {}", e.getMessage());
+                retryable = toSend;
+            }
+            
+            if (!fatal.isEmpty()) {
+                throw new IllegalStateException("批量写入文档块失败: " + fatal.size() + " 条, 例如 " + fatal.get(0));
+            }
+            if (retryable.isEmpty()) {
+                return;
+            }
+            if (attempt >= maxRetries) {
+                throw new IllegalStateException("批量写入文档块重试 " + maxRetries + " 次后仍有 "
+                        + retryable.size() + " 条被拒绝");
+            }
+            
+            long backoff = retryBackoffMs * (1L << attempt);
+            log.warn("bulk写入有 {} 条被拒绝，{}ms 后重试（第 {} 次）", retryable.size(), backoff, attempt + 1);
+            sleep(backoff);
+            toSend = retryable;
+        }
+    }
+    
+    private BulkRequest buildRequest(String indexName, List<BulkItem> items) {
+        BulkRequest.Builder builder = new BulkRequest.Builder();
+        for (BulkItem item : items) {
+            builder.operations(op -> op.index(idx -> idx
+                    .index(indexName)
+                    .id(item.id())
+                    .document(item.source())));
+        }
+        return builder.build();
+    }
+    
+    @Override
+    public void beginBulkIngest() {
+        synchronized (bulkIngestLock) {
+            if (bulkIngestSessions++ > 0) {
+                return;
+            }
+            
+            String indexName = indexName();
+            try {
+                // 其他节点正在导入或本节点上次导入中断时读到的是导入设置，不能当作原设置保存
+                String current = readRefreshInterval(indexName);
+                savedRefreshInterval = isIngestSetting(current) ? null : current;
+                putRefreshInterval(indexName, ingestRefreshInterval);
+                log.info("进入批量导入模式: {} refresh_interval {} -> {}", 
+                    indexName, savedRefreshInterval, ingestRefreshInterval);
+            } catch (Exception e) {
+                log.warn("调整refresh_interval失败，按普通模式写入: {}", indexName, e);
+            }
+        }
+    }
+    
+    @Override
+    public void endBulkIngest() {
+        synchronized (bulkIngestLock) {
+            if (bulkIngestSessions == 0 || --bulkIngestSessions > 0) {
+                return;
+            }
+            
+            String indexName = indexName();
+            try {
+                restoreRefreshInterval(indexName, savedRefreshInterval);
+                elasticsearchClient.indices().refresh(r -> r.index(indexName));
+                log.info("退出批量导入模式: {} refresh_interval 恢复为 {}", indexName,
+                    savedRefreshInterval != null ? savedRefreshInterval : "默认值");
+            } catch (Exception e) {
+                log.error("恢复refresh_interval失败: {}", indexName, e);
+            } finally {
+                savedRefreshInterval = null;
+            }
+        }
+    }
+    
+    @Override
+    public void recoverBulkIngest() {
+        synchronized (bulkIngestLock) {
+            if (bulkIngestSessions > 0) {
+                return;
+            }
+            
+            String indexName = indexName();
+            try {
+                if (isIngestSetting(readRefreshInterval(indexName))) {
+                    restoreRefreshInterval(indexName, null);
+                    elasticsearchClient.indices().refresh(r -> r.index(indexName));
+                    log.warn("上次批量导入未正常结束，已恢复refresh_interval: {}", indexName);
+                }
+            } catch (Exception e) {
+                log.warn("检查refresh_interval失败: {}", indexName, e);
+            }
+        }
+    }
+    
+    private boolean isIngestSetting(String interval) {
+        return interval != null && (interval.equals(ingestRefreshInterval) || interval.equals("-1"));
+    }
+    
+    private String readRefreshInterval(String indexName) throws IOException {
+        GetIndicesSettingsResponse response = elasticsearchClient.indices()
+                .getSettings(g -> g.index(indexName));
+        
+        for (IndexState state : response.result().values()) {
+            IndexSettings settings = state.settings();
+            if (settings == null) {
+                continue;
+            }
+            Time interval = settings.index() != null
+                    ? settings.index().refreshInterval()
+                    : settings.refreshInterval();
+            if (interval != null && interval.isTime()) {
+                return interval.time();
+            }
+        }
+        return null;
+    }
+    
+    private void putRefreshInterval(String indexName, String interval) throws IOException {
+        elasticsearchClient.indices().putSettings(p -> p
+                .index(indexName)
+                .settings(s -> s.refreshInterval(t -> t.time(interval))));
+    }
+    
+    /**
+     * 恢复refresh_interval；没有原设置时置为 null，交由ES按默认行为refresh（含空闲分片跳过refresh）
+     */
+    private void restoreRefreshInterval(String indexName, String interval) throws IOException {
+        if (interval != null) {
+            putRefreshInterval(indexName, interval);
+            return;
+        }
+        Request request = new Request("PUT", "/" + indexName + "/_settings");
+        request.setJsonEntity("{\"index\":{\"refresh_interval\":null}}");
+        restClient.performRequest(request);
+    }
+    
+    private String indexName() {
+        return elasticsearchOperations.getIndexCoordinatesFor(DocumentChunk.class).getIndexName();
+    }
+    
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("批量写入被中断", e);
+        }
+    }
+}
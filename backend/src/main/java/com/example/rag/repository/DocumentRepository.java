@@ -5,11 +5,14 @@ import com.example.rag.model.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -30,6 +33,51 @@ public interface DocumentRepository extends JpaRepository<Document, UUID> {
      */
     Page<Document> findByUploadUser(User user, Pageable pageable);
     
+    /**
+     * 根据用户查找未删除的文档
+     */
+    Page<Document> findByUploadUserAndStatusNot(User user, Document.DocumentStatus status, Pageable pageable);
+    
+    /**
+     * 根据内容哈希查找最早处理完成、且自己持有分块的文档
+     */
+    Optional<Document> findFirstByContentHashAndStatusAndSourceDocumentIdIsNullOrderByUploadTimeAsc(
+            String contentHash, Document.DocumentStatus status);
+    
+    /**
+     * 统计引用指定文档分块的重复上传数量
+     */
+    long countBySourceDocumentId(String sourceDocumentId);
+    
+    /**
+     * 统计内容哈希相同的文档数量
+     */
+    long countByContentHash(String contentHash);
+    
+    /**
+     * 同步引用指定文档分块的重复上传的分块数
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Document d SET d.chunksCount = :chunksCount WHERE d.sourceDocumentId = :sourceDocumentId")
+    int updateChunksCountBySourceDocumentId(@Param("sourceDocumentId") String sourceDocumentId,
+                                            @Param("chunksCount") Integer chunksCount);
+    
+    /**
+     * 记录入库断点
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Document d SET d.checkpointChunkIndex = :checkpoint, d.checkpointChunking = :chunking, " +
+           "d.updatedAt = :now WHERE d.documentId = :documentId")
+    int updateCheckpoint(@Param("documentId") String documentId, @Param("checkpoint") Integer checkpoint,
+                         @Param("chunking") String chunking, @Param("now") LocalDateTime now);
+    
+    /**
+     * 查找持有自身分块的指定状态文档
+     */
+    List<Document> findByStatusInAndSourceDocumentIdIsNull(Collection<Document.DocumentStatus> statuses);
+    
     /**
      * 根据状态查找文档
      */
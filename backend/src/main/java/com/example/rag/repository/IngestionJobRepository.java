@@ -0,0 +1,170 @@
+package com.example.rag.repository;
+
+import com.example.rag.model.IngestionJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 文档入库任务仓储接口
+ */
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, UUID> {
+
+    /**
+     * 根据任务ID查找任务
+     */
+    Optional<IngestionJob> findByJobId(String jobId);
+
+    /**
+     * 查找文档的所有任务（最新的在前）
+     */
+    List<IngestionJob> findByDocumentIdOrderByCreatedAtDesc(String documentId);
+
+    /**
+     * 按创建时间顺序查找指定状态的任务
+     */
+    List<IngestionJob> findByStatusOrderByCreatedAtAsc(IngestionJob.JobStatus status, Pageable pageable);
+
+    /**
+     * 按创建时间顺序查找指定状态和通道的任务
+     */
+    List<IngestionJob> findByStatusAndLaneOrderByCreatedAtAsc(IngestionJob.JobStatus status,
+                                                             IngestionJob.JobLane lane, Pageable pageable);
+
+    /**
+     * 统计指定状态和通道的任务数量
+     */
+    long countByStatusAndLane(IngestionJob.JobStatus status, IngestionJob.JobLane lane);
+
+    /**
+     * 统计通道中处于指定状态之一的任务数量
+     */
+    long countByStatusInAndLane(Collection<IngestionJob.JobStatus> statuses, IngestionJob.JobLane lane);
+
+    /**
+     * 统计指定状态的任务数量
+     */
+    long countByStatus(IngestionJob.JobStatus status);
+
+    /**
+     * 文档是否有指定状态的任务
+     */
+    boolean existsByDocumentIdAndStatusIn(String documentId, Collection<IngestionJob.JobStatus> statuses);
+
+    /**
+     * 文档是否登记过入库任务
+     */
+    boolean existsByDocumentId(String documentId);
+
+    /**
+     * 认领排队中的任务并记录执行节点，返回1表示认领成功（防止多个节点重复执行）
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'RUNNING', j.ownerNode = :node, j.heartbeatAt = :now, " +
+           "j.startedAt = :now, j.updatedAt = :now, j.attempts = j.attempts + 1 " +
+           "WHERE j.id = :id AND j.status = 'QUEUED'")
+    int claim(@Param("id") UUID id, @Param("node") String node, @Param("now") LocalDateTime now);
+
+    /**
+     * 获取入库队列的事务级咨询锁，持有至当前事务结束，用于串行化各节点的队列名额检查和任务登记
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    @Query(value = "SELECT 1 FROM (SELECT pg_advisory_xact_lock(:key)) AS queue_lock", nativeQuery = true)
+    int lockQueue(@Param("key") long key);
+
+    /**
+     * 将已落盘文档的预留名额转为排队中的任务
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'QUEUED', j.ownerNode = NULL, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.status = 'RESERVED'")
+    int activateReservation(@Param("id") UUID id, @Param("now") LocalDateTime now);
+
+    /**
+     * 删除上传中断后遗留的预留名额：属于指定节点（本节点重启前的上传）或预留已超时
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM IngestionJob j WHERE j.status = 'RESERVED' " +
+           "AND (j.ownerNode = :node OR j.createdAt < :expiredBefore)")
+    int deleteStaleReservations(@Param("node") String node, @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    /**
+     * 记录本节点执行中任务的结束状态，返回0表示任务已被取消或已被其他节点接管
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = :status, j.errorMessage = :error, j.finishedAt = :now, " +
+           "j.updatedAt = :now WHERE j.id = :id AND j.ownerNode = :node AND j.status = 'RUNNING'")
+    int finish(@Param("id") UUID id, @Param("node") String node, @Param("status") IngestionJob.JobStatus status,
+               @Param("error") String error, @Param("now") LocalDateTime now);
+
+    /**
+     * 将本节点认领但未能提交执行的任务放回队列
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'QUEUED', j.ownerNode = NULL, j.updatedAt = :now " +
+           "WHERE j.id = :id AND j.ownerNode = :node AND j.status = 'RUNNING'")
+    int release(@Param("id") UUID id, @Param("node") String node, @Param("now") LocalDateTime now);
+
+    /**
+     * 为本节点执行中的任务续约
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.heartbeatAt = :now " +
+           "WHERE j.id IN :ids AND j.ownerNode = :node AND j.status = 'RUNNING'")
+    int renewLeases(@Param("ids") Collection<UUID> ids, @Param("node") String node, @Param("now") LocalDateTime now);
+
+    /**
+     * 将执行节点已失联的任务重新排队：属于指定节点（本节点重启前的任务）或租约已过期
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'QUEUED', j.ownerNode = NULL, j.updatedAt = :now " +
+           "WHERE j.status = 'RUNNING' AND (j.ownerNode = :node OR j.ownerNode IS NULL " +
+           "OR j.heartbeatAt IS NULL OR j.heartbeatAt < :expiredBefore)")
+    int requeueAbandonedJobs(@Param("node") String node, @Param("expiredBefore") LocalDateTime expiredBefore,
+                             @Param("now") LocalDateTime now);
+
+    /**
+     * 将租约已过期的任务重新排队（执行节点失联）
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'QUEUED', j.ownerNode = NULL, j.updatedAt = :now " +
+           "WHERE j.status = 'RUNNING' AND j.heartbeatAt < :expiredBefore")
+    int requeueExpiredJobs(@Param("expiredBefore") LocalDateTime expiredBefore, @Param("now") LocalDateTime now);
+
+    /**
+     * 取消文档排队中和执行中的任务
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.status = 'CANCELLED', j.finishedAt = :now, j.updatedAt = :now " +
+           "WHERE j.documentId = :documentId AND j.status IN ('QUEUED', 'RUNNING')")
+    int cancelActiveJobs(@Param("documentId") String documentId, @Param("now") LocalDateTime now);
+
+    /**
+     * 为新增通道字段之前登记的任务补上默认通道
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE IngestionJob j SET j.lane = 'NORMAL' WHERE j.lane IS NULL")
+    int assignDefaultLane();
+}
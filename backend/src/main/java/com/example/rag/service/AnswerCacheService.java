@@ -0,0 +1,121 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.SmartQueryResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Service;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * 问答结果缓存（精确匹配）
+ *
+ * 键为 (路由, 语料版本号, 规范化问题的SHA-256)，值为完整的智能查询响应，存放在Redis缓存 answers 中。
+ * 普通查询和流式查询共用同一批条目，流式查询命中时按原有事件顺序回放
+ */
+@Service
+@Slf4j
+public class AnswerCacheService {
+
+    public static final String CACHE_NAME = "answers";
+
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\p{Punct}？！。，、；：\\s]+$");
+
+    private final CacheManager cacheManager;
+    private final CorpusVersionService corpusVersionService;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    @Value("${app.answer-cache.enabled:true}")
+    private boolean enabled;
+
+    public AnswerCacheService(CacheManager cacheManager,
+                              CorpusVersionService corpusVersionService,
+                              MeterRegistry meterRegistry) {
+        this.cacheManager = cacheManager;
+        this.corpusVersionService = corpusVersionService;
+        this.hitCounter = Counter.builder("rag.answer.cache.hits")
+                .description("问答结果缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("rag.answer.cache.misses")
+                .description("问答结果缓存未命中次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 当前语料版本号，应在检索前读取，写入缓存时原样传回
+     */
+    public long corpusVersion() {
+        return corpusVersionService.currentVersion();
+    }
+
+    /**
+     * 查找指定语料版本下缓存的回答，未命中返回 null
+     */
+    public SmartQueryResponse get(String question, String route, long corpusVersion) {
+        Cache cache = cache();
+        if (cache == null) {
+            return null;
+        }
+        try {
+            SmartQueryResponse response = cache.get(cacheKey(question, route, corpusVersion), SmartQueryResponse.class);
+            if (response != null) {
+                hitCounter.increment();
+                log.info("命中问答结果缓存: {}", question);
+                return response;
+            }
+        } catch (Exception e) {
+            log.warn("读取问答结果缓存失败，按未命中处理: {}", e.getMessage());
+        }
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * 缓存回答，只缓存有效的回答，错误和系统提示不缓存
+     *
+     * @param corpusVersion 检索前读取的语料版本号，生成期间语料变化时条目写在旧版本下，不会被新版本读到
+     */
+    public void put(String question, String route, SmartQueryResponse response, long corpusVersion) {
+        Cache cache = cache();
+        if (cache == null || !isCacheable(response)) {
+            return;
+        }
+        try {
+            cache.put(cacheKey(question, route, corpusVersion), response);
+        } catch (Exception e) {
+            log.warn("写入问答结果缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private Cache cache() {
+        return enabled ? cacheManager.getCache(CACHE_NAME) : null;
+    }
+
+    /**
+     * 是否为可缓存的回答：相关、非空，且不是错误或系统提示
+     */
+    static boolean isCacheable(SmartQueryResponse response) {
+        return response != null && response.isRelevant()
+                && response.getSourceType() != SmartQueryResponse.SourceType.ERROR
+                && response.getSourceType() != SmartQueryResponse.SourceType.SYSTEM
+                && response.getAnswer() != null && !response.getAnswer().isBlank();
+    }
+
+    private String cacheKey(String question, String route, long corpusVersion) {
+        return route + ":" + corpusVersion + ":" + EmbeddingCacheService.sha256(normalizeQuestion(question));
+    }
+
+    /**
+     * 规范化问题：在向量缓存的规范化基础上忽略大小写和句末标点
+     */
+    static String normalizeQuestion(String question) {
+        String normalized = EmbeddingCacheService.normalize(question).toLowerCase(Locale.ROOT);
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+}
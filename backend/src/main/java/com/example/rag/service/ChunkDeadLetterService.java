@@ -0,0 +1,224 @@
+package com.example.rag.service;
+
+import com.example.rag.model.ChunkDeadLetter;
+import com.example.rag.model.Document;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.repository.ChunkDeadLetterRepository;
+import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.repository.DocumentRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 向量化失败分块的死信服务
+ *
+ * 入库时向量化或写入向量索引失败的分块登记在死信表中，文档标记为部分索引；
+ * 定时任务按指数退避重试，全部成功后文档恢复为已完成。
+ * 重试在入库线程池中执行，不占用调度线程，同一时刻只有一轮重试
+ */
+@Service
+@Slf4j
+public class ChunkDeadLetterService {
+
+    private final ChunkDeadLetterRepository deadLetterRepository;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final DocumentRepository documentRepository;
+    private final VectorSearchService vectorSearchService;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ThreadPoolTaskExecutor ingestionExecutor;
+
+    /**
+     * 是否有一轮重试正在执行
+     */
+    private final AtomicBoolean retrying = new AtomicBoolean();
+
+    @Value("${app.ingestion.dead-letter.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${app.ingestion.dead-letter.retry-backoff-ms:60000}")
+    private long retryBackoffMs;
+
+    @Value("${app.ingestion.dead-letter.batch-size:64}")
+    private int batchSize;
+
+    public ChunkDeadLetterService(ChunkDeadLetterRepository deadLetterRepository,
+                                  DocumentChunkRepository documentChunkRepository,
+                                  DocumentRepository documentRepository,
+                                  VectorSearchService vectorSearchService,
+                                  ApplicationEventPublisher eventPublisher,
+                                  @Qualifier("ingestionExecutor") ThreadPoolTaskExecutor ingestionExecutor) {
+        this.deadLetterRepository = deadLetterRepository;
+        this.documentChunkRepository = documentChunkRepository;
+        this.documentRepository = documentRepository;
+        this.vectorSearchService = vectorSearchService;
+        this.eventPublisher = eventPublisher;
+        this.ingestionExecutor = ingestionExecutor;
+    }
+
+    /**
+     * 登记一批向量化失败的分块
+     */
+    public void record(List<DocumentChunk> chunks, Throwable error) {
+        LocalDateTime nextRetryAt = LocalDateTime.now().plusNanos(retryBackoffMs * 1_000_000);
+        List<ChunkDeadLetter> letters = new ArrayList<>(chunks.size());
+        for (DocumentChunk chunk : chunks) {
+            ChunkDeadLetter letter = deadLetterRepository.findByChunkId(chunk.getId())
+                    .orElseGet(() -> ChunkDeadLetter.builder()
+                            .chunkId(chunk.getId())
+                            .documentId(chunk.getDocumentId())
+                            .chunkIndex(chunk.getChunkIndex())
+                            .build());
+            letter.setStatus(ChunkDeadLetter.DeadLetterStatus.PENDING);
+            letter.setLastError(truncate(error != null ? error.getMessage() : null));
+            letter.setNextRetryAt(nextRetryAt);
+            letters.add(letter);
+        }
+        deadLetterRepository.saveAll(letters);
+        log.warn("已登记 {} 个向量化失败的分块: {}", letters.size(),
+                chunks.isEmpty() ? null : chunks.get(0).getDocumentId());
+    }
+
+    /**
+     * 文档的失败分块
+     */
+    public List<ChunkDeadLetter> getForDocument(String documentId) {
+        return deadLetterRepository.findByDocumentIdOrderByChunkIndexAsc(documentId);
+    }
+
+    /**
+     * 文档的失败分块数量
+     */
+    public long countForDocument(String documentId) {
+        return deadLetterRepository.countByDocumentId(documentId);
+    }
+
+    /**
+     * 清除文档的全部失败分块（重新入库或删除文档时）
+     */
+    public void clear(String documentId) {
+        long deleted = deadLetterRepository.deleteByDocumentId(documentId);
+        if (deleted > 0) {
+            log.info("已清除文档 {} 的 {} 个失败分块记录", documentId, deleted);
+        }
+    }
+
+    /**
+     * 定时把到期失败分块的重试交给入库线程池；上一轮未结束或线程池已满时跳过本轮
+     */
+    @Scheduled(fixedDelayString = "${app.ingestion.dead-letter.retry-interval:30000}")
+    public void scheduleRetry() {
+        if (!retrying.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ingestionExecutor.execute(() -> {
+                try {
+                    retryDue();
+                } catch (Exception e) {
+                    log.error("失败分块重试异常", e);
+                } finally {
+                    retrying.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            retrying.set(false);
+            log.debug("入库线程池繁忙，失败分块重试推迟到下一轮");
+        }
+    }
+
+    /**
+     * 重试到期的失败分块
+     */
+    public void retryDue() {
+        List<ChunkDeadLetter> due = deadLetterRepository.findByStatusAndNextRetryAtBeforeOrderByNextRetryAtAsc(
+                ChunkDeadLetter.DeadLetterStatus.PENDING, LocalDateTime.now(), PageRequest.of(0, batchSize));
+        if (due.isEmpty()) {
+            return;
+        }
+
+        Set<String> chunkIds = due.stream().map(ChunkDeadLetter::getChunkId).collect(Collectors.toSet());
+        List<DocumentChunk> chunks = new ArrayList<>();
+        documentChunkRepository.findAllById(chunkIds).forEach(chunks::add);
+
+        // 分块已随文档删除的记录直接清理
+        Set<String> existing = chunks.stream().map(DocumentChunk::getId).collect(Collectors.toSet());
+        List<String> orphaned = chunkIds.stream().filter(id -> !existing.contains(id)).toList();
+        if (!orphaned.isEmpty()) {
+            deadLetterRepository.deleteByChunkIdIn(orphaned);
+        }
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<float[]> vectors = vectorSearchService.embedChunks(chunks);
+            vectorSearchService.writeEmbeddedChunks(chunks, vectors);
+            deadLetterRepository.deleteByChunkIdIn(existing);
+            log.info("失败分块重试成功: {} 个", chunks.size());
+        } catch (Exception e) {
+            log.warn("失败分块重试失败: {} 个, {}", chunks.size(), e.getMessage());
+            rescheduleOrExhaust(due, existing, e);
+            return;
+        }
+
+        Set<String> documentIds = new HashSet<>(chunks.stream().map(DocumentChunk::getDocumentId).toList());
+        documentIds.forEach(this::completeIfFullyIndexed);
+        vectorSearchService.refreshSearchIndex();
+        documentIds.forEach(documentId -> eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId)));
+    }
+
+    private void rescheduleOrExhaust(List<ChunkDeadLetter> due, Set<String> existing, Exception error) {
+        LocalDateTime now = LocalDateTime.now();
+        List<ChunkDeadLetter> updated = due.stream()
+                .filter(letter -> existing.contains(letter.getChunkId()))
+                .toList();
+        for (ChunkDeadLetter letter : updated) {
+            int attempts = letter.getAttempts() + 1;
+            letter.setAttempts(attempts);
+            letter.setLastError(truncate(error.getMessage()));
+            if (attempts >= maxAttempts) {
+                letter.setStatus(ChunkDeadLetter.DeadLetterStatus.EXHAUSTED);
+                letter.setNextRetryAt(null);
+            } else {
+                long backoff = retryBackoffMs * (1L << Math.min(attempts, 20));
+                letter.setNextRetryAt(now.plusNanos(backoff * 1_000_000));
+            }
+        }
+        deadLetterRepository.saveAll(updated);
+    }
+
+    /**
+     * 文档不再有失败分块时恢复为已完成
+     */
+    private void completeIfFullyIndexed(String documentId) {
+        if (deadLetterRepository.countByDocumentId(documentId) > 0) {
+            return;
+        }
+        documentRepository.findByDocumentId(documentId)
+                .filter(document -> document.getStatus() == Document.DocumentStatus.PARTIALLY_INDEXED)
+                .ifPresent(document -> {
+                    document.setStatus(Document.DocumentStatus.COMPLETED);
+                    documentRepository.save(document);
+                    log.info("文档所有分块已写入向量索引: {}", documentId);
+                });
+    }
+
+    private static String truncate(String message) {
+        return message != null && message.length() > 1000 ? message.substring(0, 1000) : message;
+    }
+}
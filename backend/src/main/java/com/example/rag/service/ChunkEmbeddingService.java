@@ -0,0 +1,198 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量向量化服务
+ *
+ * 将文本切分为固定大小的批次，每批一次Ollama /api/embed 调用，
+ * 多个批次在共享的向量化线程池中并发执行，单批失败按指数退避重试；
+ * 已缓存的文本不会再次发往Ollama
+ */
+@Service
+@Slf4j
+public class ChunkEmbeddingService {
+
+    private final EmbeddingModel embeddingModel;
+    private final ThreadPoolTaskExecutor embeddingExecutor;
+    private final EmbeddingCacheService embeddingCacheService;
+
+    @Value("${app.embedding.batch-size:16}")
+    private int batchSize;
+
+    @Value("${app.embedding.max-retries:3}")
+    private int maxRetries;
+
+    @Value("${app.embedding.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    public ChunkEmbeddingService(EmbeddingModel embeddingModel,
+                                 @Qualifier("embeddingExecutor") ThreadPoolTaskExecutor embeddingExecutor,
+                                 EmbeddingCacheService embeddingCacheService) {
+        this.embeddingModel = embeddingModel;
+        this.embeddingExecutor = embeddingExecutor;
+        this.embeddingCacheService = embeddingCacheService;
+    }
+
+    /**
+     * 批次进度回调
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        void onBatchCompleted(int completedBatches, int totalBatches, int completedTexts, int totalTexts);
+    }
+
+    /**
+     * 批量向量化，返回顺序与输入一致；任一批次重试耗尽时抛出异常
+     */
+    public List<float[]> embed(List<String> texts) {
+        return embed(texts, null);
+    }
+
+    /**
+     * 批量向量化并报告每个批次的进度
+     *
+     * 先查询向量缓存，只有未命中的文本会发往Ollama
+     */
+    public List<float[]> embed(List<String> texts, ProgressListener listener) {
+        if (texts.isEmpty()) {
+            return List.of();
+        }
+
+        List<float[]> result = new ArrayList<>(embeddingCacheService.getAll(texts));
+        List<Integer> missIndexes = new ArrayList<>();
+        List<String> missTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (result.get(i) == null) {
+                missIndexes.add(i);
+                missTexts.add(texts.get(i));
+            }
+        }
+        if (missTexts.isEmpty()) {
+            if (listener != null) {
+                listener.onBatchCompleted(0, 0, texts.size(), texts.size());
+            }
+            return result;
+        }
+
+        List<List<String>> batches = partition(missTexts);
+        int totalBatches = batches.size();
+        AtomicInteger completedBatches = new AtomicInteger();
+        AtomicInteger completedTexts = new AtomicInteger(texts.size() - missTexts.size());
+
+        List<CompletableFuture<List<float[]>>> futures = new ArrayList<>(totalBatches);
+        for (List<String> batch : batches) {
+            futures.add(embedUncachedAsync(batch).thenApply(vectors -> {
+                int batchesDone = completedBatches.incrementAndGet();
+                int textsDone = completedTexts.addAndGet(batch.size());
+                if (listener != null) {
+                    listener.onBatchCompleted(batchesDone, totalBatches, textsDone, texts.size());
+                }
+                return vectors;
+            }));
+        }
+
+        int missPosition = 0;
+        try {
+            for (CompletableFuture<List<float[]>> future : futures) {
+                for (float[] vector : future.join()) {
+                    result.set(missIndexes.get(missPosition++), vector);
+                }
+            }
+        } catch (CompletionException e) {
+            futures.forEach(future -> future.cancel(false));
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+        return result;
+    }
+
+    /**
+     * 异步向量化单个批次：缓存命中的直接返回，未命中的在向量化线程池中执行（含重试）
+     */
+    public CompletableFuture<List<float[]>> embedBatchAsync(List<String> batch) {
+        List<float[]> cached = embeddingCacheService.getAll(batch);
+        if (cached.stream().allMatch(vector -> vector != null)) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        List<String> missTexts = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (cached.get(i) == null) {
+                missTexts.add(batch.get(i));
+            }
+        }
+        return embedUncachedAsync(missTexts).thenApply(vectors -> {
+            List<float[]> result = new ArrayList<>(cached);
+            int missPosition = 0;
+            for (int i = 0; i < result.size(); i++) {
+                if (result.get(i) == null) {
+                    result.set(i, vectors.get(missPosition++));
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 在向量化线程池中调用embedding模型，并将结果写入缓存
+     */
+    private CompletableFuture<List<float[]>> embedUncachedAsync(List<String> batch) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            List<float[]> vectors = embedBatchWithRetry(batch);
+            embeddingCacheService.recordEmbedding(batch.size(), System.nanoTime() - start);
+            embeddingCacheService.putAll(batch, vectors);
+            return vectors;
+        }, embeddingExecutor);
+    }
+
+    /**
+     * 按配置的批次大小切分
+     */
+    public List<List<String>> partition(List<String> texts) {
+        List<List<String>> batches = new ArrayList<>();
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            batches.add(texts.subList(start, Math.min(start + batchSize, texts.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * 单批向量化，失败时按指数退避重试
+     */
+    private List<float[]> embedBatchWithRetry(List<String> batch) {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                List<float[]> vectors = embeddingModel.embed(batch);
+                if (vectors.size() != batch.size()) {
+                    throw new IllegalStateException("向量数量与文本数量不一致: " + vectors.size() + " != " + batch.size());
+                }
+                return vectors;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    log.error("批次向量化失败，已重试 {} 次，批次大小: {}", maxRetries, batch.size());
+                    throw e;
+                }
+                long backoff = retryBackoffMs * (1L << attempt);
+                log.warn("批次向量化失败，{}ms 后重试（第 {} 次）: {}", backoff, attempt + 1, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("向量化被中断", ie);
+                }
+            }
+        }
+    }
+}
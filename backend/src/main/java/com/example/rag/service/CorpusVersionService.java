@@ -0,0 +1,51 @@
+package com.example.rag.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 语料版本号
+ *
+ * 每次上传、入库完成或删除文档都递增，保存在Redis中供各节点共享；
+ * 以版本号作为缓存键的一部分，语料变化后旧条目自然失效。Redis不可用时退回本节点计数
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class CorpusVersionService {
+
+    private static final String VERSION_KEY = "rag:corpus:version";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final AtomicLong localVersion = new AtomicLong();
+
+    /**
+     * 当前语料版本号
+     */
+    public long currentVersion() {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(VERSION_KEY);
+            return value != null ? Long.parseLong(value) : 0L;
+        } catch (Exception e) {
+            log.debug("读取语料版本号失败，使用本节点计数: {}", e.getMessage());
+            return localVersion.get();
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexChanged(DocumentIndexChangedEvent event) {
+        localVersion.incrementAndGet();
+        try {
+            Long version = stringRedisTemplate.opsForValue().increment(VERSION_KEY);
+            log.debug("语料版本号递增为 {}: {}", version, event.documentId());
+        } catch (Exception e) {
+            log.warn("递增语料版本号失败: {}", e.getMessage());
+        }
+    }
+}
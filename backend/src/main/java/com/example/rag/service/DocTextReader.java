@@ -0,0 +1,49 @@
+package com.example.rag.service;
+
+import org.apache.poi.hwpf.HWPFDocument;
+import org.apache.poi.hwpf.usermodel.Range;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * 按段落读取旧版 .doc 文本
+ *
+ * 以只读方式基于文件打开 POIFS，不把整个文件读入内存；
+ * 段落文本按需逐个取出，不拼接成完整字符串
+ */
+public class DocTextReader extends ParagraphReader {
+
+    private final POIFSFileSystem fileSystem;
+    private final Range range;
+    private final int paragraphCount;
+    private int nextParagraph = 0;
+
+    public DocTextReader(Path filePath) throws IOException {
+        this.fileSystem = new POIFSFileSystem(filePath.toFile(), true);
+        try {
+            HWPFDocument document = new HWPFDocument(fileSystem.getRoot());
+            this.range = document.getRange();
+            this.paragraphCount = range.numParagraphs();
+        } catch (IOException | RuntimeException e) {
+            fileSystem.close();
+            throw e;
+        }
+    }
+
+    @Override
+    protected String nextParagraph() {
+        if (nextParagraph >= paragraphCount) {
+            return null;
+        }
+        String text = Range.stripFields(range.getParagraph(nextParagraph++).text());
+        // \r 为段落结束符，\u0007 为表格单元格结束符
+        return text.replace('\r', '\n').replace('\u0007', '\t');
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileSystem.close();
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.rag.service;
+
+/**
+ * 文档的可检索内容发生变化：入库完成、失败分块补写、删除
+ *
+ * 依赖检索结果的缓存监听该事件失效相关条目；在事务中发布时，监听方在事务提交后才处理
+ */
+public record DocumentIndexChangedEvent(String documentId) {
+}
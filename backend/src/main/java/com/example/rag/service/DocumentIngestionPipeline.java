@@ -0,0 +1,415 @@
+package com.example.rag.service;
+
+import com.example.rag.model.Document;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.repository.DocumentChunkRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+
+/**
+ * 分阶段文档入库流水线
+ *
+ * 分块 → 向量化 → 写入索引 三个阶段之间通过有界队列衔接：
+ * 第 N 批在向量化时，第 N-1 批正在写入索引，第 N+1 批正在分块。
+ * 队列满时上游阶段阻塞，内存占用与文档大小无关。
+ * 每批写入完成后推进断点，向量化或写入向量索引失败的分块登记为死信，不中断入库。
+ * 各阶段运行在共享的 pipelineStageExecutor 线程池中。
+ */
+@Service
+@Slf4j
+public class DocumentIngestionPipeline {
+
+    private final DocumentChunkRepository documentChunkRepository;
+    private final VectorSearchService vectorSearchService;
+    private final ChunkDeadLetterService chunkDeadLetterService;
+    private final ThreadPoolTaskExecutor stageExecutor;
+
+    @Value("${app.ingestion.pipeline.batch-size:32}")
+    private int batchSize;
+
+    @Value("${app.ingestion.pipeline.queue-capacity:4}")
+    private int queueCapacity;
+
+    @Value("${app.ingestion.pipeline.embed-workers:2}")
+    private int embedWorkers;
+
+    @Value("${app.ingestion.pipeline.index-workers:1}")
+    private int indexWorkers;
+
+    @Value("${app.ingestion.bulk.bulk-mode-threshold:500}")
+    private int bulkModeThreshold;
+
+    public DocumentIngestionPipeline(DocumentChunkRepository documentChunkRepository,
+                                     VectorSearchService vectorSearchService,
+                                     ChunkDeadLetterService chunkDeadLetterService,
+                                     @Qualifier("pipelineStageExecutor") ThreadPoolTaskExecutor stageExecutor) {
+        this.documentChunkRepository = documentChunkRepository;
+        this.vectorSearchService = vectorSearchService;
+        this.chunkDeadLetterService = chunkDeadLetterService;
+        this.stageExecutor = stageExecutor;
+    }
+
+    /**
+     * 为文档启动一次流水线，调用方通过 {@link Run#accept} 推送分块结果
+     */
+    public Run start(Document document) {
+        return start(document, 0, null);
+    }
+
+    /**
+     * 从断点启动流水线：序号小于 resumeFrom 的分块已写入索引，推送时直接跳过
+     *
+     * @param checkpointListener 断点推进时回调，参数为已连续写入的分块数
+     */
+    public Run start(Document document, int resumeFrom, IntConsumer checkpointListener) {
+        return start(document, resumeFrom, checkpointListener, () -> false);
+    }
+
+    /**
+     * 从断点启动可停止的流水线：stopped 返回 true 后不再写入新的批次，各阶段以 CancellationException 中止
+     */
+    public Run start(Document document, int resumeFrom, IntConsumer checkpointListener, BooleanSupplier stopped) {
+        return new Run(document, resumeFrom, checkpointListener, stopped);
+    }
+
+    /**
+     * 已向量化的批次，vectors 为空表示该批次向量化失败，error 为失败原因
+     */
+    private record EmbeddedBatch(List<DocumentChunk> chunks, List<float[]> vectors, Throwable error) {
+    }
+
+    /**
+     * 单个文档的流水线运行实例
+     */
+    public class Run implements AutoCloseable {
+
+        private static final List<DocumentChunk> END_OF_CHUNKS = List.of();
+        private static final EmbeddedBatch END_OF_BATCHES = new EmbeddedBatch(List.of(), null, null);
+
+        private final Document document;
+        private final BlockingQueue<List<DocumentChunk>> embedQueue;
+        private final BlockingQueue<EmbeddedBatch> indexQueue;
+        private final List<Future<?>> stages = new ArrayList<>();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicInteger runningEmbedWorkers;
+        private final AtomicInteger indexedChunks = new AtomicInteger();
+        private final AtomicInteger unembeddedChunks = new AtomicInteger();
+
+        private final int resumeFrom;
+        private final IntConsumer checkpointListener;
+        private final BooleanSupplier stopped;
+
+        /**
+         * 已写入但前面还有未完成批次的分块区间（起始序号 → 结束序号），用于推进连续断点
+         */
+        private final TreeMap<Integer, Integer> completedRanges = new TreeMap<>();
+        private int checkpoint;
+
+        private List<DocumentChunk> pending = new ArrayList<>();
+        private int nextChunkIndex = 0;
+        private boolean finished = false;
+        private boolean bulkIngestMode = false;
+
+        private Run(Document document, int resumeFrom, IntConsumer checkpointListener, BooleanSupplier stopped) {
+            this.document = document;
+            this.resumeFrom = resumeFrom;
+            this.checkpointListener = checkpointListener;
+            this.stopped = stopped;
+            this.checkpoint = resumeFrom;
+            this.embedQueue = new ArrayBlockingQueue<>(queueCapacity);
+            this.indexQueue = new ArrayBlockingQueue<>(queueCapacity);
+            this.runningEmbedWorkers = new AtomicInteger(embedWorkers);
+
+            for (int i = 0; i < embedWorkers; i++) {
+                stages.add(stageExecutor.submit(this::embedLoop));
+            }
+            for (int i = 0; i < indexWorkers; i++) {
+                stages.add(stageExecutor.submit(this::indexLoop));
+            }
+        }
+
+        /**
+         * 推送一个分块，凑满一批后交给向量化阶段；下游积压时阻塞
+         */
+        public void accept(String content, int startPosition, int endPosition) {
+            accept(content, startPosition, endPosition, null);
+        }
+
+        /**
+         * 推送一个带元数据的分块
+         */
+        public void accept(String content, int startPosition, int endPosition, Map<String, Object> metadata) {
+            checkStopped();
+            if (nextChunkIndex < resumeFrom) {
+                // 断点之前的分块已写入索引
+                nextChunkIndex++;
+                return;
+            }
+
+            String now = LocalDateTime.now().toString();
+            DocumentChunk chunk = DocumentChunk.builder()
+                    .id(document.getDocumentId() + "_" + nextChunkIndex)
+                    .documentId(document.getDocumentId())
+                    .content(content)
+                    .chunkIndex(nextChunkIndex)
+                    .startPosition(startPosition)
+                    .endPosition(endPosition)
+                    .category(document.getCategory())
+                    .metadata(metadata)
+                    .createdAt(now)
+                    .updatedAt(now)
+                    .build();
+            nextChunkIndex++;
+
+            // 大文档导入期间暂停document_chunks的定时refresh，结束后统一refresh
+            if (!bulkIngestMode && nextChunkIndex - resumeFrom >= bulkModeThreshold) {
+                bulkIngestMode = true;
+                documentChunkRepository.beginBulkIngest();
+            }
+
+            pending.add(chunk);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * 已推送的分块数量
+         */
+        public int getChunkCount() {
+            return nextChunkIndex;
+        }
+
+        /**
+         * 结束推送并等待所有阶段完成
+         *
+         * @return 文档的分块总数，包括断点之前已写入的分块
+         */
+        public int finish() throws Exception {
+            flush();
+            for (int i = 0; i < embedWorkers; i++) {
+                put(embedQueue, END_OF_CHUNKS);
+            }
+
+            for (Future<?> stage : stages) {
+                awaitStage(stage);
+            }
+            finished = true;
+            checkFailure();
+
+            if (unembeddedChunks.get() > 0) {
+                log.warn("文档 {} 有 {} 个分块未写入向量索引，已登记等待重试",
+                        document.getDocumentId(), unembeddedChunks.get());
+            }
+            log.info("流水线完成: {}, 本次写入 {} 个分块, 跳过断点前 {} 个",
+                    document.getDocumentId(), indexedChunks.get(), Math.min(resumeFrom, nextChunkIndex));
+            return nextChunkIndex;
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                failure.compareAndSet(null, new IllegalStateException("流水线被提前关闭"));
+                stages.forEach(stage -> stage.cancel(true));
+            }
+            if (bulkIngestMode) {
+                bulkIngestMode = false;
+                documentChunkRepository.endBulkIngest();
+            }
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<DocumentChunk> batch = pending;
+            pending = new ArrayList<>();
+            put(embedQueue, batch);
+        }
+
+        /**
+         * 向量化阶段
+         */
+        private void embedLoop() {
+            try {
+                while (true) {
+                    List<DocumentChunk> batch = take(embedQueue);
+                    if (batch == null || batch == END_OF_CHUNKS) {
+                        break;
+                    }
+
+                    List<float[]> vectors = null;
+                    Throwable error = null;
+                    try {
+                        vectors = vectorSearchService.embedChunks(batch);
+                    } catch (Exception e) {
+                        // 向量化失败不影响文档块入库，分块登记为死信后由定时任务重试
+                        log.error("批次向量化失败: {}, 起始块 {}", document.getDocumentId(),
+                                batch.get(0).getChunkIndex(), e);
+                        error = e;
+                    }
+                    put(indexQueue, new EmbeddedBatch(batch, vectors, error));
+                }
+
+                // 最后一个正常结束的向量化线程通知写入阶段结束；失败时写入阶段从 take 返回 null 退出
+                if (runningEmbedWorkers.decrementAndGet() == 0) {
+                    for (int i = 0; i < indexWorkers; i++) {
+                        put(indexQueue, END_OF_BATCHES);
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * 写入索引阶段
+         */
+        private void indexLoop() {
+            try {
+                while (true) {
+                    EmbeddedBatch batch = take(indexQueue);
+                    if (batch == null || batch == END_OF_BATCHES) {
+                        break;
+                    }
+                    checkStopped();
+
+                    // 单索引模式下向量随分块一次写入，不再单独写向量索引
+                    boolean singleIndex = vectorSearchService.isSingleIndex();
+                    if (singleIndex && batch.vectors() != null) {
+                        vectorSearchService.attachEmbeddings(batch.chunks(), batch.vectors());
+                    }
+                    documentChunkRepository.bulkIndex(batch.chunks());
+
+                    Throwable vectorError = batch.error();
+                    if (!singleIndex && batch.vectors() != null) {
+                        try {
+                            vectorSearchService.addEmbeddedChunksToVectorStore(batch.chunks(), batch.vectors());
+                        } catch (Exception e) {
+                            log.error("批次写入向量索引失败: {}, 起始块 {}", document.getDocumentId(),
+                                    batch.chunks().get(0).getChunkIndex(), e);
+                            vectorError = e;
+                        }
+                    }
+                    if (batch.vectors() == null || vectorError != null) {
+                        chunkDeadLetterService.record(batch.chunks(), vectorError);
+                        unembeddedChunks.addAndGet(batch.chunks().size());
+                    }
+
+                    int indexed = indexedChunks.addAndGet(batch.chunks().size());
+                    log.debug("已写入 {} 个分块: {}", indexed, document.getDocumentId());
+                    advanceCheckpoint(batch.chunks());
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }
+
+        /**
+         * 记录已完成的批次，并把断点推进到连续完成的最远位置
+         */
+        private synchronized void advanceCheckpoint(List<DocumentChunk> chunks) {
+            int first = chunks.get(0).getChunkIndex();
+            completedRanges.put(first, first + chunks.size());
+
+            int previous = checkpoint;
+            Integer end;
+            while ((end = completedRanges.remove(checkpoint)) != null) {
+                checkpoint = end;
+            }
+            if (checkpoint != previous && checkpointListener != null) {
+                checkpointListener.accept(checkpoint);
+            }
+        }
+
+        /**
+         * 已要求停止时中止当前阶段
+         */
+        private void checkStopped() {
+            if (stopped.getAsBoolean()) {
+                throw new CancellationException("流水线已停止: " + document.getDocumentId());
+            }
+        }
+
+        private void fail(Throwable t) {
+            if (failure.compareAndSet(null, t)) {
+                log.error("流水线阶段失败: {}", document.getDocumentId(), t);
+            }
+        }
+
+        /**
+         * 等待一个阶段结束，等待期间任一阶段失败时立即抛出
+         */
+        private void awaitStage(Future<?> stage) throws Exception {
+            while (true) {
+                try {
+                    stage.get(1, TimeUnit.SECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    checkFailure();
+                } catch (CancellationException e) {
+                    checkFailure();
+                    return;
+                }
+            }
+        }
+
+        private void checkFailure() throws Exception {
+            Throwable t = failure.get();
+            if (t instanceof Exception e) {
+                throw e;
+            }
+            if (t != null) {
+                throw new IllegalStateException("流水线阶段失败", t);
+            }
+        }
+
+        /**
+         * 阻塞入队，任一阶段失败时立即放弃
+         */
+        private <T> void put(BlockingQueue<T> queue, T item) {
+            try {
+                while (!queue.offer(item, 200, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) {
+                        throw new IllegalStateException("流水线已中止", failure.get());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("流水线被中断", e);
+            }
+        }
+
+        /**
+         * 阻塞出队，任一阶段失败时返回 null
+         */
+        private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            while (failure.get() == null) {
+                T item = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (item != null) {
+                    return item;
+                }
+            }
+            return null;
+        }
+    }
+}
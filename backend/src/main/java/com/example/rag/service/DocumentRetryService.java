@@ -0,0 +1,108 @@
+package com.example.rag.service;
+
+import com.example.rag.model.Document;
+import com.example.rag.model.IngestionJob;
+import com.example.rag.repository.DocumentRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 失败文档自动重试服务
+ *
+ * 定时扫描处理失败的文档，到达各自的退避时间后在后台通道重新入库；
+ * 可限定只在低峰时段运行，重试次数用尽的文档由 DocumentService 隔离
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class DocumentRetryService {
+
+    private final DocumentRepository documentRepository;
+    private final IngestionJobService ingestionJobService;
+
+    @Value("${app.ingestion.retry.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 允许自动重试的时段，格式 HH:mm-HH:mm，可跨零点；为空表示不限时段
+     */
+    @Value("${app.ingestion.retry.window:}")
+    private String window;
+
+    @Value("${app.ingestion.retry.max-age-days:7}")
+    private long maxAgeDays;
+
+    /**
+     * 扫描失败文档并登记到期的重试任务
+     */
+    @Scheduled(fixedDelayString = "${app.ingestion.retry.poll-interval:60000}")
+    public void retryFailedDocuments() {
+        if (!enabled || !inWindow(LocalTime.now())) {
+            return;
+        }
+
+        long slots = ingestionJobService.availableBackgroundSlots();
+        if (slots == 0) {
+            return;
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        List<Document> due = documentRepository.findFailedDocumentsSince(now.minusDays(maxAgeDays)).stream()
+                .filter(document -> document.getNextRetryAt() == null || !document.getNextRetryAt().isAfter(now))
+                .sorted(Comparator.comparing(Document::getUploadTime))
+                .toList();
+
+        int enqueued = 0;
+        for (Document document : due) {
+            if (enqueued >= slots) {
+                break;
+            }
+            if (ingestionJobService.hasActiveJob(document.getDocumentId())) {
+                continue;
+            }
+
+            int retries = document.getRetryCount() != null ? document.getRetryCount() : 0;
+            document.setRetryCount(retries + 1);
+            document.setNextRetryAt(null);
+            documentRepository.save(document);
+
+            ingestionJobService.enqueue(document, IngestionJob.JobLane.BACKGROUND);
+            enqueued++;
+            log.info("自动重试失败文档: {}, 第 {} 次, 上次失败原因: {}",
+                    document.getDocumentId(), retries + 1, document.getFailureReason());
+        }
+    }
+
+    /**
+     * 手动重试文档（包括已隔离的文档），重置重试次数并在上传通道立即排队
+     */
+    public IngestionJob retryNow(Document document) {
+        document.setRetryCount(0);
+        document.setNextRetryAt(null);
+        document.setStatus(Document.DocumentStatus.FAILED);
+        documentRepository.save(document);
+        return ingestionJobService.enqueue(document);
+    }
+
+    private boolean inWindow(LocalTime time) {
+        if (window == null || window.isBlank()) {
+            return true;
+        }
+        String[] bounds = window.split("-");
+        LocalTime start = LocalTime.parse(bounds[0].trim());
+        LocalTime end = LocalTime.parse(bounds[1].trim());
+        if (start.isBefore(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        // 跨零点的时段，如 22:00-06:00
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+}
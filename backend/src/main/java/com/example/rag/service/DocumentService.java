@@ -6,17 +6,12 @@ import com.example.rag.model.DocumentChunk;
 import com.example.rag.model.User;
 import com.example.rag.repository.DocumentRepository;
 import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.repository.IngestionJobRepository;
 import com.example.rag.service.VectorSearchService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.pdfbox.Loader;
-import org.apache.poi.hwpf.HWPFDocument;
-import org.apache.poi.hwpf.extractor.WordExtractor;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
@@ -24,15 +19,25 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.validation.Valid;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
 
 /**
  * 文档服务类
@@ -45,6 +50,24 @@ public class DocumentService {
     private final DocumentRepository documentRepository;
     private final DocumentChunkRepository documentChunkRepository;
     private final VectorSearchService vectorSearchService;
+    private final DocumentIngestionPipeline ingestionPipeline;
+    private final PdfExtractionService pdfExtractionService;
+    private final ExtractedTextCache extractedTextCache;
+    private final ChunkDeadLetterService chunkDeadLetterService;
+    private final IngestionJobRepository ingestionJobRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    
+    @Value("${app.rag.chunk-size:1000}")
+    private int chunkSize;
+    
+    @Value("${app.rag.chunk-overlap:200}")
+    private int chunkOverlap;
+    
+    @Value("${app.ingestion.retry.max-retries:5}")
+    private int maxRetries;
+    
+    @Value("${app.ingestion.retry.backoff-minutes:10}")
+    private long retryBackoffMinutes;
     
     @Value("${app.upload.path:./uploads}")
     private String uploadPath;
@@ -57,21 +80,22 @@ public class DocumentService {
     
     /**
      * 上传文档
+     *
+     * @param documentId 文档ID，由调用方预先生成，以便在落盘前为其登记入库任务
      */
     @Transactional
-    public Document uploadDocument(DocumentUploadRequest request, User user) {
+    public Document uploadDocument(DocumentUploadRequest request, User user, String documentId) {
         try {
             MultipartFile file = request.getFile();
             
             // 验证文件
             validateFile(file);
             
-            // 生成文档ID和文件名
-            String documentId = UUID.randomUUID().toString();
+            // 生成文件名
             String filename = generateFilename(file.getOriginalFilename());
             
-            // 保存文件
-            Path filePath = saveFile(file, filename);
+            // 保存文件，同时计算内容哈希
+            String contentHash = saveFile(file, filename);
             
             // 创建文档记录
             Document document = Document.builder()
@@ -83,16 +107,30 @@ public class DocumentService {
                     .category(request.getCategory())
                     .uploadUser(user)
                     .status(Document.DocumentStatus.PROCESSING)
+                    .contentHash(contentHash)
                     .build();
             
-            document = documentRepository.save(document);
+            // 相同内容已处理完成时直接引用其分块和向量，不再入库
+            Optional<Document> existing = documentRepository
+                    .findFirstByContentHashAndStatusAndSourceDocumentIdIsNullOrderByUploadTimeAsc(
+                            contentHash, Document.DocumentStatus.COMPLETED);
+            if (existing.isPresent()) {
+                Document source = existing.get();
+                Files.deleteIfExists(Paths.get(uploadPath, filename));
+                document.setFilename(source.getFilename());
+                document.setSourceDocumentId(source.getDocumentId());
+                document.setChunksCount(source.getChunksCount());
+                document.setStatus(Document.DocumentStatus.COMPLETED);
+                log.info("检测到重复上传: {} 与 {} 内容相同，复用已有分块", documentId, source.getDocumentId());
+            }
             
-            // 异步处理文档（这里先标记为完成，实际应该异步处理）
-            if (request.getAutoProcess()) {
-                // TODO: 异步处理文档内容提取和向量化
-                processDocumentAsync(document);
+            document = documentRepository.save(document);
+            if (document.getSourceDocumentId() != null) {
+                // 复用分块的文档立即可检索；其他上传在入库完成时才发布
+                eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
             }
             
+            // 内容提取和向量化由 IngestionJobService 在入库线程池中异步执行
             log.info("文档上传成功: {}", documentId);
             return document;
             
@@ -106,7 +144,7 @@ public class DocumentService {
      * 获取用户文档列表
      */
     public Page<Document> getUserDocuments(User user, Pageable pageable) {
-        return documentRepository.findByUploadUser(user, pageable);
+        return documentRepository.findByUploadUserAndStatusNot(user, Document.DocumentStatus.DELETED, pageable);
     }
     
     /**
@@ -118,6 +156,9 @@ public class DocumentService {
     
     /**
      * 删除文档（物理删除）
+     *
+     * 重复上传只删除自身记录；被其他重复上传引用的文档先标记为已删除，保留分块、向量和文件，
+     * 最后一个引用删除时再一并清理
      */
     @Transactional
     public void deleteDocument(String documentId, User user) {
@@ -133,27 +174,27 @@ public class DocumentService {
             try {
                 log.info("开始删除文档: {}", documentId);
                 
-                // 1. 删除向量存储中的文档
-                try {
-                    vectorSearchService.deleteDocumentFromVectorStore(documentId);
-                    log.info("已删除向量存储中的文档: {}", documentId);
-                } catch (Exception e) {
-                    log.error("删除向量存储中的文档失败: {}", documentId, e);
-                    // 不抛出异常，继续删除其他数据
+                if (document.getSourceDocumentId() != null) {
+                    documentRepository.delete(document);
+                    log.info("已删除重复上传记录: {}，分块归属: {}", documentId, document.getSourceDocumentId());
+                    
+                    documentRepository.findByDocumentId(document.getSourceDocumentId())
+                            .filter(source -> source.getStatus() == Document.DocumentStatus.DELETED)
+                            .filter(source -> documentRepository.countBySourceDocumentId(source.getDocumentId()) == 0)
+                            .ifPresent(this::purgeDocument);
+                    eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
+                    return;
                 }
                 
-                // 2. 删除Elasticsearch中的文档块
-                documentChunkRepository.deleteByDocumentId(documentId);
-                log.info("已删除Elasticsearch中的文档块: {}", documentId);
-                
-                // 3. 删除物理文件
-                deletePhysicalFile(document);
-                
-                // 4. 删除数据库记录
-                documentRepository.delete(document);
-                log.info("已删除数据库记录: {}", documentId);
+                if (documentRepository.countBySourceDocumentId(documentId) > 0) {
+                    document.setStatus(Document.DocumentStatus.DELETED);
+                    documentRepository.save(document);
+                    log.info("文档仍被重复上传引用，标记为已删除并保留分块: {}", documentId);
+                    eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
+                    return;
+                }
                 
-                log.info("文档完整删除成功: {}", documentId);
+                purgeDocument(document);
                 
             } catch (Exception e) {
                 log.error("删除文档失败: {}", documentId, e);
@@ -164,6 +205,66 @@ public class DocumentService {
         }
     }
     
+    /**
+     * 彻底删除文档及其向量、分块和物理文件
+     */
+    private void purgeDocument(Document document) {
+        String documentId = document.getDocumentId();
+        
+        // 0. 取消入库任务，执行中的任务停止后自行清理停止前写入的分块
+        if (ingestionJobRepository.cancelActiveJobs(documentId, LocalDateTime.now()) > 0) {
+            log.info("已取消文档的入库任务: {}", documentId);
+            eventPublisher.publishEvent(new IngestionCancelledEvent(documentId));
+        }
+        
+        // 1. 删除向量存储中的文档
+        try {
+            vectorSearchService.deleteDocumentFromVectorStore(documentId);
+            log.info("已删除向量存储中的文档: {}", documentId);
+        } catch (Exception e) {
+            log.error("删除向量存储中的文档失败: {}", documentId, e);
+            // 不抛出异常，继续删除其他数据
+        }
+        
+        // 2. 删除Elasticsearch中的文档块（单索引模式下向量随之删除）
+        long deletedChunks = documentChunkRepository.deleteAllByDocumentId(documentId);
+        log.info("已删除Elasticsearch中的 {} 个文档块: {}", deletedChunks, documentId);
+        chunkDeadLetterService.clear(documentId);
+        
+        // 3. 删除物理文件
+        deletePhysicalFile(document);
+        
+        // 4. 删除数据库记录
+        documentRepository.delete(document);
+        log.info("已删除数据库记录: {}", documentId);
+        vectorSearchService.refreshSearchIndex();
+        eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
+        
+        // 5. 没有其他文档使用相同内容时删除提取文本缓存
+        if (document.getContentHash() != null
+                && documentRepository.countByContentHash(document.getContentHash()) == 0) {
+            extractedTextCache.evict(document.getContentHash());
+        }
+        
+        log.info("文档完整删除成功: {}", documentId);
+    }
+    
+    /**
+     * 清理已取消的入库任务写入的分块、向量和失败分块记录
+     */
+    public void discardIngestedChunks(String documentId) {
+        try {
+            vectorSearchService.deleteDocumentFromVectorStore(documentId);
+        } catch (Exception e) {
+            log.error("清理已取消任务的向量失败: {}", documentId, e);
+        }
+        long deletedChunks = documentChunkRepository.deleteAllByDocumentId(documentId);
+        chunkDeadLetterService.clear(documentId);
+        log.info("已清理已取消任务写入的 {} 个文档块: {}", deletedChunks, documentId);
+        vectorSearchService.refreshSearchIndex();
+        eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
+    }
+    
     /**
      * 删除物理文件
      */
@@ -183,10 +284,30 @@ public class DocumentService {
     }
     
     /**
-     * 获取文档块
+     * 获取文档块（不含向量）
      */
     public List<DocumentChunk> getDocumentChunks(String documentId) {
-        return documentChunkRepository.findByDocumentId(documentId);
+        return getDocumentChunks(documentId, false);
+    }
+    
+    /**
+     * 获取文档块
+     *
+     * _source 不保存向量，需要时从索引的doc values读取，不重新向量化
+     */
+    public List<DocumentChunk> getDocumentChunks(String documentId, boolean includeEmbeddings) {
+        String storageDocumentId = documentRepository.findByDocumentId(documentId)
+                .map(Document::storageDocumentId)
+                .orElse(documentId);
+        List<DocumentChunk> chunks = documentChunkRepository.findByDocumentId(storageDocumentId);
+        if (includeEmbeddings && !chunks.isEmpty()) {
+            try {
+                vectorSearchService.attachEmbeddings(chunks, vectorSearchService.loadEmbeddings(chunks));
+            } catch (IOException e) {
+                throw new RuntimeException("读取文档块向量失败: " + e.getMessage(), e);
+            }
+        }
+        return chunks;
     }
     
     /**
@@ -213,17 +334,28 @@ public class DocumentService {
     }
     
     /**
-     * 保存文件
+     * 保存文件，写入过程中同时计算SHA-256
+     *
+     * @return 文件内容的十六进制SHA-256
      */
-    private Path saveFile(MultipartFile file, String filename) throws IOException {
+    private String saveFile(MultipartFile file, String filename) throws IOException {
         Path uploadDir = Paths.get(uploadPath);
         if (!Files.exists(uploadDir)) {
             Files.createDirectories(uploadDir);
         }
         
         Path filePath = uploadDir.resolve(filename);
-        file.transferTo(filePath.toFile());
-        return filePath;
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+        
+        try (InputStream in = new DigestInputStream(file.getInputStream(), digest)) {
+            Files.copy(in, filePath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return HexFormat.of().formatHex(digest.digest());
     }
     
     /**
@@ -250,180 +382,177 @@ public class DocumentService {
     }
     
     /**
-     * 异步处理文档
+     * 处理文档（内容提取、分块、向量化），由入库工作线程调用
+     *
+     * 分块结果逐批推入入库流水线，向量化和写入索引与后续分块并行进行；
+     * 每批写入后记录断点，中断或失败后再次处理时从断点继续
      */
-    private void processDocumentAsync(Document document) {
-        try {
-            log.info("开始处理文档: {}", document.getDocumentId());
-            
-            // 1. 读取文档内容
-            String content = extractDocumentContent(document);
-            if (content == null || content.trim().isEmpty()) {
-                log.warn("文档内容为空: {}", document.getDocumentId());
-                document.setStatus(Document.DocumentStatus.FAILED);
-                documentRepository.save(document);
-                return;
-            }
-            
-            // 2. 检查文本大小，防止内存溢出
-            int contentLength = content.length();
-            log.info("文档内容长度: {} 字符", contentLength);
-            
-            // 如果文本过大（超过10MB），进行预处理
-            if (contentLength > 10 * 1024 * 1024) {
-                log.warn("文档内容过大: {} 字符，将进行分批处理", contentLength);
-                processLargeDocumentInBatches(document, content);
-                return;
-            }
-            
-            // 3. 分块处理
-            List<String> chunks = splitIntoChunks(content, 1000, 200);
-            
-            // 4. 创建文档块并保存到Elasticsearch
-            saveDocumentChunks(document, chunks);
-            
-            log.info("文档处理完成: {}, 生成 {} 个块", document.getDocumentId(), chunks.size());
-            
-        } catch (OutOfMemoryError e) {
-            log.error("文档处理内存不足: {}", document.getDocumentId(), e);
-            document.setStatus(Document.DocumentStatus.FAILED);
-            documentRepository.save(document);
-        } catch (Exception e) {
-            log.error("文档处理失败: {}", document.getDocumentId(), e);
-            document.setStatus(Document.DocumentStatus.FAILED);
-            documentRepository.save(document);
-        }
+    public void processDocument(Document document) {
+        processDocument(document, () -> false);
     }
     
     /**
-     * 处理大文档（分批处理）
+     * 处理文档，stopped 返回 true 时（文档已删除或任务已被其他节点接管）尽快停止，
+     * 抛出 CancellationException 且不再更新文档状态
      */
-    private void processLargeDocumentInBatches(Document document, String content) {
+    public void processDocument(Document document, BooleanSupplier stopped) {
+        String documentId = document.getDocumentId();
+        String chunking = chunkSize + "/" + chunkOverlap;
+        
+        int resumeFrom = 0;
+        if (document.getCheckpointChunkIndex() != null && chunking.equals(document.getCheckpointChunking())) {
+            resumeFrom = document.getCheckpointChunkIndex();
+        }
+        
         try {
-            int batchSize = 100000; // 每批处理10万字符
-            int totalLength = content.length();
-            int totalChunks = 0;
-            List<DocumentChunk> allDocumentChunks = new java.util.ArrayList<>();
+            if (resumeFrom > 0) {
+                log.info("从断点继续处理文档: {}, 已写入 {} 个分块", documentId, resumeFrom);
+            } else {
+                log.info("开始处理文档: {}", documentId);
+                chunkDeadLetterService.clear(documentId);
+            }
             
-            for (int start = 0; start < totalLength; start += batchSize) {
-                int end = Math.min(start + batchSize + 2000, totalLength); // 增加重叠
-                String batch = content.substring(start, end);
-                
-                List<String> chunks = splitIntoChunks(batch, 1000, 200);
-                
-                // 调整chunk索引
-                for (int i = 0; i < chunks.size(); i++) {
-                    DocumentChunk documentChunk = DocumentChunk.builder()
-                            .id(document.getDocumentId() + "_" + (totalChunks + i))
-                            .documentId(document.getDocumentId())
-                            .content(chunks.get(i))
-                            .chunkIndex(totalChunks + i)
-                            .startPosition(start + i * 800)
-                            .endPosition(start + (i + 1) * 800)
-                            .category(document.getCategory())
-                            .createdAt(LocalDateTime.now().toString())
-                            .updatedAt(LocalDateTime.now().toString())
-                            .build();
-                    
-                    documentChunkRepository.save(documentChunk);
-                    allDocumentChunks.add(documentChunk);
+            int totalChunks;
+            try (Reader reader = openDocumentReader(document);
+                 DocumentIngestionPipeline.Run pipeline = ingestionPipeline.start(document, resumeFrom,
+                         checkpoint -> documentRepository.updateCheckpoint(documentId, checkpoint, chunking,
+                                 LocalDateTime.now()), stopped)) {
+                if (reader == null) {
+                    markFailed(document, "无法读取文档内容（文件不存在、格式不支持或解析失败）");
+                    return;
                 }
                 
-                totalChunks += chunks.size();
-                log.info("已处理批次: {}/{}, 当前块数: {}", 
-                    (start / batchSize + 1), (totalLength / batchSize + 1), totalChunks);
+                // 1. 边读取边分块，分块结果立即推入流水线
+                TextChunker.ChunkSink sink = pipeline::accept;
+                if (reader instanceof PageOffsets.Source paged && paged.getPageOffsets() != null) {
+                    // 分块的页码范围，页边界在读取时已记录，无需额外解析
+                    PageOffsets pages = paged.getPageOffsets();
+                    sink = (content, start, end) -> pipeline.accept(content, start, end, Map.of(
+                            "pageStart", pages.pageAt(start),
+                            "pageEnd", pages.pageAt(Math.max(start, end - 1))));
+                }
+                int chunkCount = new TextChunker(chunkSize, chunkOverlap).split(reader, sink);
+                if (chunkCount == 0) {
+                    log.warn("文档内容为空: {}", documentId);
+                    markFailed(document, "文档内容为空");
+                    return;
+                }
                 
-                // 强制垃圾回收
-                System.gc();
+                // 2. 等待向量化和索引写入完成
+                totalChunks = pipeline.finish();
             }
             
-            // 添加所有文档块到向量存储
-            try {
-                log.info("添加 {} 个文档块到向量存储", allDocumentChunks.size());
-                vectorSearchService.addDocumentsToVectorStore(allDocumentChunks);
-                log.info("成功添加所有文档块到向量存储");
-            } catch (Exception e) {
-                log.error("添加文档块到向量存储失败", e);
-                // 不抛出异常，允许文档处理继续
+            if (stopped.getAsBoolean()) {
+                throw new CancellationException("文档处理已停止: " + documentId);
             }
             
-            // 更新文档状态
-            document.setStatus(Document.DocumentStatus.COMPLETED);
+            // 重新处理时分块数可能变少，清理旧的多余分块
+            removeStaleChunks(documentId, totalChunks);
+            documentRepository.updateChunksCountBySourceDocumentId(documentId, totalChunks);
+            
+            // 更新文档状态，有分块未写入向量索引时标记为部分索引
+            long failedChunks = chunkDeadLetterService.countForDocument(documentId);
+            document.setStatus(failedChunks > 0
+                    ? Document.DocumentStatus.PARTIALLY_INDEXED : Document.DocumentStatus.COMPLETED);
             document.setChunksCount(totalChunks);
+            document.setCheckpointChunkIndex(null);
+            document.setCheckpointChunking(null);
+            document.setFailureReason(null);
+            document.setNextRetryAt(null);
             documentRepository.save(document);
             
-            log.info("大文档处理完成: {}, 生成 {} 个块", document.getDocumentId(), totalChunks);
+            log.info("文档处理完成: {}, 生成 {} 个块, 未写入向量索引 {} 个", documentId, totalChunks, failedChunks);
             
+        } catch (OutOfMemoryError e) {
+            log.error("文档处理内存不足: {}", documentId, e);
+            markFailed(document, "内存不足: " + e.getMessage());
         } catch (Exception e) {
-            log.error("大文档处理失败: {}", document.getDocumentId(), e);
-            document.setStatus(Document.DocumentStatus.FAILED);
-            documentRepository.save(document);
+            if (stopped.getAsBoolean()) {
+                // 流水线因停止而中止，文档可能已被删除，不能再写回状态
+                throw new CancellationException("文档处理已停止: " + documentId);
+            }
+            log.error("文档处理失败: {}", documentId, e);
+            markFailed(document, e.getClass().getSimpleName() + ": " + e.getMessage());
+        } finally {
+            // 无论成功与否，已写入的分块都可能被检索到；小文档不进入批量导入模式，写入后没有refresh，
+            // 先refresh再通知缓存失效，避免失效后的检索读不到新分块又被缓存
+            vectorSearchService.refreshSearchIndex();
+            eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId));
         }
     }
     
     /**
-     * 保存文档块
+     * 标记处理失败并记录原因，保留流水线已记录的断点
+     *
+     * 按已重试次数计算下次自动重试时间；重试次数用尽的文档隔离，不再自动重试
      */
-    private void saveDocumentChunks(Document document, List<String> chunks) {
-        List<DocumentChunk> documentChunks = new java.util.ArrayList<>();
+    private void markFailed(Document document, String reason) {
+        documentRepository.findByDocumentId(document.getDocumentId()).ifPresent(current -> {
+            document.setCheckpointChunkIndex(current.getCheckpointChunkIndex());
+            document.setCheckpointChunking(current.getCheckpointChunking());
+        });
         
-        int chunkIndex = 0;
-        for (String chunk : chunks) {
-            DocumentChunk documentChunk = DocumentChunk.builder()
-                    .id(document.getDocumentId() + "_" + chunkIndex)
-                    .documentId(document.getDocumentId())
-                    .content(chunk)
-                    .chunkIndex(chunkIndex)
-                    .startPosition(chunkIndex * 800) // 估算位置
-                    .endPosition((chunkIndex + 1) * 800)
-                    .category(document.getCategory())
-                    .createdAt(LocalDateTime.now().toString())
-                    .updatedAt(LocalDateTime.now().toString())
-                    .build();
-            
-            documentChunkRepository.save(documentChunk);
-            documentChunks.add(documentChunk);
-            chunkIndex++;
+        int retries = document.getRetryCount() != null ? document.getRetryCount() : 0;
+        document.setFailureReason(reason != null && reason.length() > 1000 ? reason.substring(0, 1000) : reason);
+        if (retries >= maxRetries) {
+            document.setStatus(Document.DocumentStatus.QUARANTINED);
+            document.setNextRetryAt(null);
+            log.warn("文档已重试 {} 次仍失败，已隔离: {}, 原因: {}", retries, document.getDocumentId(), reason);
+        } else {
+            document.setStatus(Document.DocumentStatus.FAILED);
+            document.setNextRetryAt(LocalDateTime.now().plusMinutes(retryBackoffMinutes * (1L << retries)));
         }
-        
-        // 添加到向量存储
+        documentRepository.save(document);
+    }
+    
+    /**
+     * 删除分块序号不小于 chunkCount 的旧分块
+     */
+    private void removeStaleChunks(String documentId, int chunkCount) {
         try {
-            log.info("添加 {} 个文档块到向量存储", documentChunks.size());
-            vectorSearchService.addDocumentsToVectorStore(documentChunks);
-            log.info("成功添加文档块到向量存储");
+            documentChunkRepository.deleteByDocumentIdFromChunkIndex(documentId, chunkCount);
+            vectorSearchService.deleteChunksFromVectorStore(documentId, chunkCount);
         } catch (Exception e) {
-            log.error("添加文档块到向量存储失败", e);
-            // 不抛出异常，允许文档处理继续
+            log.warn("清理旧分块失败: {}", documentId, e);
         }
-        
-        // 更新文档状态
-        document.setStatus(Document.DocumentStatus.COMPLETED);
-        document.setChunksCount(chunks.size());
-        documentRepository.save(document);
     }
     
     /**
-     * 提取文档内容
+     * 打开文档内容的字符流，文件不存在或提取失败时返回 null
+     *
+     * 纯文本直接流式读取，PDF按页读取，Word按段落读取；
+     * 需要解析的格式优先读取提取文本缓存，未命中时边解析边写入缓存
      */
-    private String extractDocumentContent(Document document) {
+    private Reader openDocumentReader(Document document) {
         try {
             Path filePath = Paths.get(uploadPath, document.getFilename());
+            String extension = getFileExtension(document.getOriginalFilename());
+            
+            if (!"txt".equals(extension) && !"md".equals(extension)) {
+                Optional<Reader> cached = extractedTextCache.open(document.getContentHash());
+                if (cached.isPresent()) {
+                    return cached.get();
+                }
+            }
+            
             if (!Files.exists(filePath)) {
                 log.error("文件不存在: {}", filePath);
                 return null;
             }
             
-            String extension = getFileExtension(document.getOriginalFilename());
-            
-            switch (extension.toLowerCase()) {
+            switch (extension) {
                 case "txt":
                 case "md":
-                    return Files.readString(filePath);
+                    return Files.newBufferedReader(filePath, StandardCharsets.UTF_8);
                 case "pdf":
-                    return extractPdfContent(filePath);
+                    return extractedTextCache.cacheWhileReading(document.getContentHash(),
+                            pdfExtractionService.open(filePath));
                 case "doc":
+                    return extractedTextCache.cacheWhileReading(document.getContentHash(),
+                            new DocTextReader(filePath));
                 case "docx":
-                    return extractWordContent(filePath);
+                    return extractedTextCache.cacheWhileReading(document.getContentHash(),
+                            new DocxTextReader(filePath));
                 default:
                     log.warn("不支持的文件类型: {}", extension);
                     return null;
@@ -434,141 +563,4 @@ public class DocumentService {
             return null;
         }
     }
-    
-    /**
-     * 提取PDF内容
-     */
-    private String extractPdfContent(Path filePath) {
-        try (PDDocument document = Loader.loadPDF(filePath.toFile())) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
-        } catch (IOException e) {
-            log.error("提取PDF内容失败: {}", filePath, e);
-            return null;
-        }
-    }
-    
-    /**
-     * 提取Word内容
-     */
-    private String extractWordContent(Path filePath) {
-        try (FileInputStream fis = new FileInputStream(filePath.toFile())) {
-            if (filePath.toString().endsWith(".doc")) {
-                WordExtractor extractor = new WordExtractor(fis);
-                return extractor.getText();
-            } else if (filePath.toString().endsWith(".docx")) {
-                XWPFWordExtractor extractor = new XWPFWordExtractor(new XWPFDocument(fis));
-                return extractor.getText();
-            } else {
-                log.warn("不支持的Word文件格式: {}", filePath);
-                return null;
-            }
-        } catch (IOException e) {
-            log.error("提取Word内容失败: {}", filePath, e);
-            return null;
-        }
-    }
-    
-    /**
-     * 将文本分块（修复版本 - 防止版权页污染）
-     */
-    private List<String> splitIntoChunks(String text, int chunkSize, int overlap) {
-        List<String> chunks = new java.util.ArrayList<>();
-        
-        if (text == null || text.isEmpty()) {
-            return chunks;
-        }
-        
-        if (text.length() <= chunkSize) {
-            chunks.add(text);
-            return chunks;
-        }
-        
-        int start = 0;
-        int textLength = text.length();
-        int maxIterations = (textLength / (chunkSize - overlap)) + 10; // 预估最大迭代次数
-        int iteration = 0;
-        
-        log.debug("开始分块处理，文本长度: {}, 块大小: {}, 重叠: {}", textLength, chunkSize, overlap);
-        
-        while (start < textLength && iteration < maxIterations) {
-            iteration++;
-            int end = Math.min(start + chunkSize, textLength);
-            
-            // 尝试在合适的位置分割，避免截断单词或句子
-            if (end < textLength) {
-                // 查找最佳分割点
-                int bestEnd = findBestSplitPoint(text, start + chunkSize / 2, end);
-                if (bestEnd > start) {
-                    end = bestEnd;
-                }
-            }
-            
-            // 使用substring创建块
-            String chunk = text.substring(start, end).trim();
-            if (!chunk.isEmpty()) {
-                chunks.add(chunk);
-                log.debug("创建块 {}: 起始={}, 结束={}, 长度={}", chunks.size(), start, end, chunk.length());
-            }
-            
-            // 🔧 修复分块算法：确保合理的步长
-            int nextStart = end - overlap;
-            
-            // 确保步长至少前进一定距离，避免无限循环
-            int minStep = Math.max(50, chunkSize / 20); // 最小步长
-            if (nextStart <= start) {
-                nextStart = start + minStep;
-                log.debug("步长过小，强制最小步长: {} -> {}", start, nextStart);
-            }
-            
-            start = nextStart;
-            
-            // 如果下一个起始位置已经超出文本范围，结束循环
-            if (start >= textLength) {
-                break;
-            }
-        }
-        
-        // 检查是否因为达到最大迭代次数而退出
-        if (iteration >= maxIterations) {
-            log.warn("达到最大迭代次数 {}，强制退出分块循环", maxIterations);
-        }
-        
-        log.info("分块完成，生成 {} 个块，迭代 {} 次", chunks.size(), iteration);
-        return chunks;
-    }
-    
-    /**
-     * 查找最佳分割点
-     */
-    private int findBestSplitPoint(String text, int minEnd, int maxEnd) {
-        // 优先级：句号 > 换行符 > 空格
-        int lastPeriod = text.lastIndexOf('。', maxEnd);
-        if (lastPeriod >= minEnd) {
-            return lastPeriod + 1;
-        }
-        
-        int lastExclamation = text.lastIndexOf('！', maxEnd);
-        if (lastExclamation >= minEnd) {
-            return lastExclamation + 1;
-        }
-        
-        int lastQuestion = text.lastIndexOf('？', maxEnd);
-        if (lastQuestion >= minEnd) {
-            return lastQuestion + 1;
-        }
-        
-        int lastNewline = text.lastIndexOf('\n', maxEnd);
-        if (lastNewline >= minEnd) {
-            return lastNewline + 1;
-        }
-        
-        int lastSpace = text.lastIndexOf(' ', maxEnd);
-        if (lastSpace >= minEnd) {
-            return lastSpace + 1;
-        }
-        
-        // 如果找不到合适的分割点，就在最大位置分割
-        return maxEnd;
-    }
-} 
\ No newline at end of file
+}
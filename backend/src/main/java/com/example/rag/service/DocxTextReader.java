@@ -0,0 +1,132 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * 流式读取 .docx 正文文本
+ *
+ * 直接从zip中流式解析 word/document.xml，不构建 XWPFDocument，
+ * 图片等媒体部件完全不读取；每解析完一个段落就交给下游
+ */
+@Slf4j
+public class DocxTextReader extends ParagraphReader {
+
+    private static final String MAIN_DOCUMENT_PART = "word/document.xml";
+    private static final String WORDML_NAMESPACE = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    private final ZipFile zipFile;
+    private final InputStream partStream;
+    private final XMLStreamReader xml;
+    private final StringBuilder paragraph = new StringBuilder();
+
+    private boolean inText = false;
+    private int tableDepth = 0;
+
+    public DocxTextReader(Path filePath) throws IOException {
+        this.zipFile = new ZipFile(filePath.toFile());
+        try {
+            ZipEntry entry = zipFile.getEntry(MAIN_DOCUMENT_PART);
+            if (entry == null) {
+                throw new IOException("不是有效的docx文件，缺少 " + MAIN_DOCUMENT_PART);
+            }
+            this.partStream = zipFile.getInputStream(entry);
+            this.xml = XML_INPUT_FACTORY.createXMLStreamReader(partStream, "UTF-8");
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            zipFile.close();
+            throw e instanceof IOException io ? io : new IOException("打开docx失败: " + filePath, e);
+        }
+    }
+
+    /**
+     * 与 XWPFWordExtractor 的输出保持一致：段落以换行结束，制表符和换行符原样保留，表格每行一段、单元格以制表符分隔
+     */
+    @Override
+    protected String nextParagraph() throws IOException {
+        try {
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT && WORDML_NAMESPACE.equals(xml.getNamespaceURI())) {
+                    switch (xml.getLocalName()) {
+                        case "t" -> inText = true;
+                        case "tbl" -> tableDepth++;
+                        case "tab" -> paragraph.append('\t');
+                        case "br", "cr" -> paragraph.append('\n');
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && WORDML_NAMESPACE.equals(xml.getNamespaceURI())) {
+                    switch (xml.getLocalName()) {
+                        case "t" -> inText = false;
+                        case "tbl" -> tableDepth--;
+                        case "tc" -> paragraph.append('\t');
+                        case "p" -> {
+                            // 表格内的段落并入所在行，整行作为一个段落输出
+                            if (tableDepth == 0) {
+                                paragraph.append('\n');
+                                return takeParagraph();
+                            }
+                        }
+                        case "tr" -> {
+                            // 单元格之间以制表符分隔，行尾不保留
+                            if (!paragraph.isEmpty() && paragraph.charAt(paragraph.length() - 1) == '\t') {
+                                paragraph.setLength(paragraph.length() - 1);
+                            }
+                            paragraph.append('\n');
+                            return takeParagraph();
+                        }
+                        default -> {
+                        }
+                    }
+                } else if (inText && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                    paragraph.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("解析docx正文失败", e);
+        }
+        return paragraph.isEmpty() ? null : takeParagraph();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            xml.close();
+        } catch (XMLStreamException e) {
+            log.debug("关闭docx解析器失败: {}", e.getMessage());
+        } finally {
+            try {
+                partStream.close();
+            } finally {
+                zipFile.close();
+            }
+        }
+    }
+
+    private String takeParagraph() {
+        String text = paragraph.toString();
+        paragraph.setLength(0);
+        return text;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // 上传文件不可信，禁止DTD和外部实体
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+}
@@ -0,0 +1,235 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 文档块向量缓存（Redis）
+ *
+ * 键为 (embedding模型, 规范化文本的SHA-256)，值为float32小端字节序的向量。
+ * 通过一个按最近访问时间排序的ZSET维护条目数上限，超出时淘汰最久未使用的条目。
+ */
+@Service
+@Slf4j
+public class EmbeddingCacheService {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final RedisTemplate<String, byte[]> binaryRedisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter savedSecondsCounter;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong embeddedTexts = new AtomicLong();
+    private final AtomicLong embeddingNanos = new AtomicLong();
+
+    @Value("${app.embedding.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.embedding.cache.max-entries:200000}")
+    private long maxEntries;
+
+    @Value("${app.embedding.cache.key-prefix:rag:emb:}")
+    private String keyPrefix;
+
+    @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}")
+    private String embeddingModelName;
+
+    public EmbeddingCacheService(RedisTemplate<String, byte[]> binaryRedisTemplate,
+                                 StringRedisTemplate stringRedisTemplate,
+                                 MeterRegistry meterRegistry) {
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.hitCounter = Counter.builder("rag.embedding.cache.hits")
+                .description("文档块向量缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("rag.embedding.cache.misses")
+                .description("文档块向量缓存未命中次数")
+                .register(meterRegistry);
+        this.savedSecondsCounter = Counter.builder("rag.embedding.cache.saved")
+                .description("缓存命中节省的向量化时间（按平均单条耗时估算）")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("rag.embedding.cache.hit.ratio", this, EmbeddingCacheService::hitRatio)
+                .description("文档块向量缓存命中率")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 批量查询缓存，返回与输入等长的列表，未命中的位置为 null
+     */
+    public List<float[]> getAll(List<String> texts) {
+        List<float[]> result = new ArrayList<>(texts.size());
+        if (!enabled || texts.isEmpty()) {
+            texts.forEach(text -> result.add(null));
+            return result;
+        }
+
+        List<String> keys = texts.stream().map(this::cacheKey).toList();
+        List<byte[]> values;
+        try {
+            values = binaryRedisTemplate.opsForValue().multiGet(keys);
+        } catch (Exception e) {
+            log.warn("读取向量缓存失败，按未命中处理: {}", e.getMessage());
+            values = null;
+        }
+
+        Set<ZSetOperations.TypedTuple<String>> touched = new HashSet<>();
+        double now = System.currentTimeMillis();
+        int hitCount = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            byte[] value = values != null ? values.get(i) : null;
+            if (value != null) {
+                result.add(decode(value));
+                touched.add(new DefaultTypedTuple<>(keys.get(i), now));
+                hitCount++;
+            } else {
+                result.add(null);
+            }
+        }
+
+        recordLookup(hitCount, texts.size() - hitCount);
+        if (!touched.isEmpty()) {
+            try {
+                stringRedisTemplate.opsForZSet().add(lruKey(), touched);
+            } catch (Exception e) {
+                log.debug("更新向量缓存访问时间失败: {}", e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量写入缓存，并在超出条目上限时淘汰最久未使用的条目
+     */
+    public void putAll(List<String> texts, List<float[]> vectors) {
+        if (!enabled || texts.isEmpty()) {
+            return;
+        }
+
+        Map<String, byte[]> entries = new HashMap<>();
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>();
+        double now = System.currentTimeMillis();
+        for (int i = 0; i < texts.size(); i++) {
+            String key = cacheKey(texts.get(i));
+            entries.put(key, encode(vectors.get(i)));
+            tuples.add(new DefaultTypedTuple<>(key, now));
+        }
+
+        try {
+            binaryRedisTemplate.opsForValue().multiSet(entries);
+            stringRedisTemplate.opsForZSet().add(lruKey(), tuples);
+            evictIfNeeded();
+        } catch (Exception e) {
+            log.warn("写入向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一次实际向量化的耗时，用于估算缓存节省的时间
+     */
+    public void recordEmbedding(int textCount, long elapsedNanos) {
+        embeddedTexts.addAndGet(textCount);
+        embeddingNanos.addAndGet(elapsedNanos);
+    }
+
+    /**
+     * 当前缓存命中率
+     */
+    public double hitRatio() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0.0 : (double) hits.get() / total;
+    }
+
+    private void recordLookup(int hitCount, int missCount) {
+        hits.addAndGet(hitCount);
+        misses.addAndGet(missCount);
+        hitCounter.increment(hitCount);
+        missCounter.increment(missCount);
+
+        long texts = embeddedTexts.get();
+        if (hitCount > 0 && texts > 0) {
+            double secondsPerText = embeddingNanos.get() / 1e9 / texts;
+            savedSecondsCounter.increment(hitCount * secondsPerText);
+        }
+    }
+
+    private void evictIfNeeded() {
+        Long size = stringRedisTemplate.opsForZSet().zCard(lruKey());
+        if (size == null || size <= maxEntries) {
+            return;
+        }
+
+        Set<ZSetOperations.TypedTuple<String>> evicted = stringRedisTemplate.opsForZSet()
+                .popMin(lruKey(), size - maxEntries);
+        if (evicted != null && !evicted.isEmpty()) {
+            List<String> keys = evicted.stream().map(ZSetOperations.TypedTuple::getValue).toList();
+            binaryRedisTemplate.delete(keys);
+            log.debug("向量缓存超出上限，淘汰 {} 个条目", keys.size());
+        }
+    }
+
+    /**
+     * 规范化文本：Unicode NFKC + 合并空白，使仅有排版差异的相同内容命中同一条目
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    private String cacheKey(String text) {
+        return keyPrefix + embeddingModelName + ":" + sha256(normalize(text));
+    }
+
+    private String lruKey() {
+        return keyPrefix + embeddingModelName + ":lru";
+    }
+
+    static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256不可用", e);
+        }
+    }
+
+    static byte[] encode(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] decode(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
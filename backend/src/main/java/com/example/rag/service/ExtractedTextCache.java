@@ -0,0 +1,249 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 提取文本缓存
+ *
+ * 以文件内容的SHA-256为键，把PDF/Word等格式提取出的纯文本gzip压缩后落盘，
+ * 调整分块参数或切换embedding模型后重新处理时只需分块和向量化，不必重新解析原文件。
+ * PDF的页偏移单独保存，读取缓存时仍能为分块标注页码
+ */
+@Service
+@Slf4j
+public class ExtractedTextCache {
+
+    private static final String TEXT_SUFFIX = ".txt.gz";
+    private static final String PAGES_SUFFIX = ".pages";
+
+    @Value("${app.ingestion.text-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ingestion.text-cache.path:./uploads/.text-cache}")
+    private String cachePath;
+
+    /**
+     * 打开缓存的文本，未命中时返回空
+     */
+    public Optional<Reader> open(String contentHash) {
+        if (!enabled || contentHash == null) {
+            return Optional.empty();
+        }
+
+        Path textFile = textFile(contentHash);
+        if (!Files.exists(textFile)) {
+            return Optional.empty();
+        }
+
+        try {
+            PageOffsets pageOffsets = readPageOffsets(contentHash);
+            Reader reader = new InputStreamReader(
+                    new GZIPInputStream(new BufferedInputStream(Files.newInputStream(textFile))),
+                    StandardCharsets.UTF_8);
+            log.info("命中提取文本缓存: {}", contentHash);
+            return Optional.of(new CachedTextReader(reader, pageOffsets));
+        } catch (IOException e) {
+            log.warn("读取提取文本缓存失败，将重新解析原文件: {}", contentHash, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * 包装原文件的文本流，读取的同时写入缓存；只有完整读到结尾时才会保存
+     */
+    public Reader cacheWhileReading(String contentHash, Reader source) {
+        if (!enabled || contentHash == null) {
+            return source;
+        }
+
+        try {
+            Path dir = Paths.get(cachePath);
+            Files.createDirectories(dir);
+            Path tempFile = Files.createTempFile(dir, contentHash, ".tmp");
+            Writer writer = new OutputStreamWriter(
+                    new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile))),
+                    StandardCharsets.UTF_8);
+            return new CachingReader(source, contentHash, tempFile, writer);
+        } catch (IOException e) {
+            log.warn("创建提取文本缓存失败，本次不缓存: {}", contentHash, e);
+            return source;
+        }
+    }
+
+    /**
+     * 删除缓存条目
+     */
+    public void evict(String contentHash) {
+        if (contentHash == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(textFile(contentHash));
+            Files.deleteIfExists(pagesFile(contentHash));
+            log.debug("已删除提取文本缓存: {}", contentHash);
+        } catch (IOException e) {
+            log.warn("删除提取文本缓存失败: {}", contentHash, e);
+        }
+    }
+
+    private Path textFile(String contentHash) {
+        return Paths.get(cachePath, contentHash + TEXT_SUFFIX);
+    }
+
+    private Path pagesFile(String contentHash) {
+        return Paths.get(cachePath, contentHash + PAGES_SUFFIX);
+    }
+
+    private PageOffsets readPageOffsets(String contentHash) throws IOException {
+        Path pagesFile = pagesFile(contentHash);
+        if (!Files.exists(pagesFile)) {
+            return null;
+        }
+        String content = Files.readString(pagesFile).trim();
+        int[] starts = content.isEmpty() ? new int[0]
+                : Arrays.stream(content.split(",")).mapToInt(Integer::parseInt).toArray();
+        return PageOffsets.of(starts);
+    }
+
+    private void writePageOffsets(String contentHash, PageOffsets pageOffsets) throws IOException {
+        String content = Arrays.stream(pageOffsets.toArray())
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(","));
+        Files.writeString(pagesFile(contentHash), content);
+    }
+
+    /**
+     * 读取缓存文本的字符流
+     */
+    private static class CachedTextReader extends FilterReader implements PageOffsets.Source {
+
+        private final PageOffsets pageOffsets;
+
+        CachedTextReader(Reader in, PageOffsets pageOffsets) {
+            super(in);
+            this.pageOffsets = pageOffsets;
+        }
+
+        @Override
+        public PageOffsets getPageOffsets() {
+            return pageOffsets;
+        }
+    }
+
+    /**
+     * 边读边写入缓存的字符流，写缓存失败不影响读取
+     */
+    private class CachingReader extends FilterReader implements PageOffsets.Source {
+
+        private final String contentHash;
+        private final Path tempFile;
+        private Writer writer;
+        private boolean endOfText = false;
+
+        CachingReader(Reader in, String contentHash, Path tempFile, Writer writer) {
+            super(in);
+            this.contentHash = contentHash;
+            this.tempFile = tempFile;
+            this.writer = writer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            char[] single = new char[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0];
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read < 0) {
+                endOfText = true;
+            } else if (writer != null) {
+                try {
+                    writer.write(buffer, offset, read);
+                } catch (IOException e) {
+                    log.warn("写入提取文本缓存失败，本次不缓存: {}", contentHash, e);
+                    abandon();
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            throw new UnsupportedOperationException("缓存中的文本必须连续读取");
+        }
+
+        @Override
+        public PageOffsets getPageOffsets() {
+            return in instanceof PageOffsets.Source source ? source.getPageOffsets() : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                in.close();
+            } finally {
+                if (writer != null && endOfText) {
+                    commit();
+                } else if (writer != null) {
+                    abandon();
+                }
+            }
+        }
+
+        private void commit() {
+            try {
+                writer.close();
+                writer = null;
+                PageOffsets pageOffsets = getPageOffsets();
+                if (pageOffsets != null) {
+                    writePageOffsets(contentHash, pageOffsets);
+                }
+                Files.move(tempFile, textFile(contentHash),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                log.info("已缓存提取文本: {}", contentHash);
+            } catch (IOException e) {
+                log.warn("保存提取文本缓存失败: {}", contentHash, e);
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            try {
+                if (writer != null) {
+                    writer.close();
+                }
+            } catch (IOException e) {
+                log.debug("关闭缓存写入流失败: {}", e.getMessage());
+            }
+            writer = null;
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.debug("删除缓存临时文件失败: {}", e.getMessage());
+            }
+        }
+    }
+}
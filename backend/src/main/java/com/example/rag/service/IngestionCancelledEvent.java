@@ -0,0 +1,9 @@
+package com.example.rag.service;
+
+/**
+ * 文档已删除，其排队中和执行中的入库任务已取消
+ *
+ * 本节点正在执行的任务收到后立即停止；其他节点在续约时发现任务被取消
+ */
+public record IngestionCancelledEvent(String documentId) {
+}
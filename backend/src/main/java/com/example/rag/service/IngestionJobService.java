@@ -0,0 +1,480 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.DocumentUploadRequest;
+import com.example.rag.dto.DocumentUploadResponse;
+import com.example.rag.exception.IngestionQueueFullException;
+import com.example.rag.model.Document;
+import com.example.rag.model.IngestionJob;
+import com.example.rag.model.User;
+import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.repository.DocumentRepository;
+import com.example.rag.repository.IngestionJobRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 文档入库任务服务
+ *
+ * 上传请求只负责落盘和登记任务，随后立即返回任务ID；
+ * 固定大小的工作线程池从数据库任务表中按顺序认领任务执行。
+ * 认领的任务记录执行节点并定时续约，只有本节点重启前的任务和租约过期的任务会被重新排队。
+ * 上传在落盘前先在咨询锁保护下检查队列名额并登记预留任务，多个节点并发上传也不会超出队列上限
+ */
+@Service
+@Slf4j
+public class IngestionJobService {
+
+    /**
+     * 入库队列咨询锁的键
+     */
+    static final long QUEUE_LOCK_KEY = 0x5241475155455545L;
+
+    private final DocumentService documentService;
+    private final DocumentRepository documentRepository;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final IngestionJobRepository ingestionJobRepository;
+    private final ThreadPoolTaskExecutor ingestionExecutor;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * 本节点空闲的工作槽位
+     */
+    private final Semaphore workerSlots;
+
+    /**
+     * 本节点正在执行的任务
+     */
+    private final Map<UUID, ActiveJob> activeJobs = new ConcurrentHashMap<>();
+
+    /**
+     * 本节点标识，写入认领的任务
+     */
+    private final String nodeId;
+
+    @Value("${app.ingestion.queue-capacity:50}")
+    private long queueCapacity;
+
+    @Value("${app.ingestion.retry-after-seconds:30}")
+    private long retryAfterSeconds;
+
+    @Value("${app.ingestion.background-concurrency:1}")
+    private long backgroundConcurrency;
+
+    @Value("${app.ingestion.lease-seconds:60}")
+    private long leaseSeconds;
+
+    @Value("${app.ingestion.reservation-timeout-seconds:600}")
+    private long reservationTimeoutSeconds;
+
+    public IngestionJobService(DocumentService documentService,
+                               DocumentRepository documentRepository,
+                               DocumentChunkRepository documentChunkRepository,
+                               IngestionJobRepository ingestionJobRepository,
+                               @Qualifier("ingestionExecutor") ThreadPoolTaskExecutor ingestionExecutor,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${app.ingestion.workers:2}") int workers,
+                               @Value("${app.ingestion.node-id:}") String nodeId) {
+        this.documentService = documentService;
+        this.documentRepository = documentRepository;
+        this.documentChunkRepository = documentChunkRepository;
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.ingestionExecutor = ingestionExecutor;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.workerSlots = new Semaphore(workers);
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId;
+    }
+
+    /**
+     * 本节点执行中的任务及其停止原因
+     */
+    private static class ActiveJob {
+        private final String documentId;
+        private volatile boolean cancelled;
+        private volatile boolean leaseLost;
+
+        private ActiveJob(String documentId) {
+            this.documentId = documentId;
+        }
+
+        private boolean isStopped() {
+            return cancelled || leaseLost;
+        }
+    }
+
+    /**
+     * 上传文档并登记入库任务，不等待处理完成
+     *
+     * 开启自动处理时先占用队列名额，队列已满时在文件落盘和写入文档记录之前拒绝
+     */
+    public DocumentUploadResponse submitUpload(DocumentUploadRequest request, User user) {
+        String documentId = UUID.randomUUID().toString();
+        if (!request.getAutoProcess()) {
+            return DocumentUploadResponse.of(documentService.uploadDocument(request, user, documentId), null);
+        }
+
+        IngestionJob job = reserveQueueSlot(documentId);
+        Document document;
+        try {
+            document = documentService.uploadDocument(request, user, documentId);
+        } catch (RuntimeException e) {
+            ingestionJobRepository.deleteById(job.getId());
+            throw e;
+        }
+
+        // 重复上传已直接引用现有分块，无需入库
+        if (document.getSourceDocumentId() != null) {
+            ingestionJobRepository.deleteById(job.getId());
+            return DocumentUploadResponse.of(document, null);
+        }
+
+        ingestionJobRepository.activateReservation(job.getId(), LocalDateTime.now());
+        job.setStatus(IngestionJob.JobStatus.QUEUED);
+        job.setOwnerNode(null);
+        log.info("入库任务已排队: job={}, document={}, 通道={}", job.getJobId(), documentId, job.getLane());
+
+        dispatch();
+        return DocumentUploadResponse.of(document, job);
+    }
+
+    /**
+     * 为已存在的文档登记入库任务
+     */
+    public IngestionJob enqueue(Document document) {
+        return enqueue(document, IngestionJob.JobLane.NORMAL);
+    }
+
+    /**
+     * 为已存在的文档在指定通道登记入库任务
+     */
+    public IngestionJob enqueue(Document document, IngestionJob.JobLane lane) {
+        IngestionJob job = IngestionJob.builder()
+                .jobId(UUID.randomUUID().toString())
+                .documentId(document.getDocumentId())
+                .status(IngestionJob.JobStatus.QUEUED)
+                .lane(lane)
+                .build();
+        job = ingestionJobRepository.save(job);
+        log.info("入库任务已排队: job={}, document={}, 通道={}", job.getJobId(), document.getDocumentId(), lane);
+
+        dispatch();
+        return job;
+    }
+
+    /**
+     * 重新分块、向量化整个语料库
+     *
+     * 为每个持有自身分块的已完成（含部分索引）文档在后台通道登记入库任务；
+     * 需要解析的格式直接读取提取文本缓存，只重复分块和向量化
+     *
+     * @return 登记的任务数量
+     */
+    public int reprocessCorpus() {
+        List<Document> documents = documentRepository.findByStatusInAndSourceDocumentIdIsNull(
+                List.of(Document.DocumentStatus.COMPLETED, Document.DocumentStatus.PARTIALLY_INDEXED));
+
+        int enqueued = 0;
+        for (Document document : documents) {
+            if (hasActiveJob(document.getDocumentId())) {
+                continue;
+            }
+            enqueue(document, IngestionJob.JobLane.BACKGROUND);
+            enqueued++;
+        }
+        log.info("语料库重新处理已排队: {}/{} 个文档", enqueued, documents.size());
+        return enqueued;
+    }
+
+    /**
+     * 文档是否有排队中或执行中的任务
+     */
+    public boolean hasActiveJob(String documentId) {
+        return ingestionJobRepository.existsByDocumentIdAndStatusIn(documentId,
+                List.of(IngestionJob.JobStatus.QUEUED, IngestionJob.JobStatus.RUNNING));
+    }
+
+    /**
+     * 后台通道当前还能接收的任务数
+     */
+    public long availableBackgroundSlots() {
+        long active = ingestionJobRepository.countByStatusAndLane(IngestionJob.JobStatus.QUEUED,
+                IngestionJob.JobLane.BACKGROUND)
+                + ingestionJobRepository.countByStatusAndLane(IngestionJob.JobStatus.RUNNING,
+                IngestionJob.JobLane.BACKGROUND);
+        return Math.max(0, backgroundConcurrency - active);
+    }
+
+    /**
+     * 根据任务ID查找任务
+     */
+    public Optional<IngestionJob> getJob(String jobId) {
+        return ingestionJobRepository.findByJobId(jobId);
+    }
+
+    /**
+     * 查找文档的入库任务
+     */
+    public List<IngestionJob> getJobsForDocument(String documentId) {
+        return ingestionJobRepository.findByDocumentIdOrderByCreatedAtDesc(documentId);
+    }
+
+    /**
+     * 服务启动后将本节点中断的任务和租约过期的任务重新排队，并为仍处于处理中却没有待执行任务的文档补登任务
+     *
+     * 文档保存了入库断点，重新执行时从断点继续；其他节点仍在续约的任务不受影响
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverInterruptedJobs() {
+        ingestionJobRepository.assignDefaultLane();
+        documentChunkRepository.recoverBulkIngest();
+        LocalDateTime now = LocalDateTime.now();
+        ingestionJobRepository.deleteStaleReservations(nodeId, now.minusSeconds(reservationTimeoutSeconds));
+        int requeued = ingestionJobRepository.requeueAbandonedJobs(nodeId, now.minusSeconds(leaseSeconds), now);
+        if (requeued > 0) {
+            log.warn("服务重启，{} 个中断的入库任务已重新排队, 节点={}", requeued, nodeId);
+        }
+
+        int resumed = 0;
+        for (Document document : documentRepository.findByStatus(Document.DocumentStatus.PROCESSING)) {
+            // 未开启自动处理的上传从未登记过任务，也没有断点，不在此处启动
+            boolean started = document.getCheckpointChunkIndex() != null
+                    || ingestionJobRepository.existsByDocumentId(document.getDocumentId());
+            if (started && !hasActiveJob(document.getDocumentId())) {
+                enqueue(document);
+                resumed++;
+            }
+        }
+        if (resumed > 0) {
+            log.warn("服务重启，{} 个中断的文档已重新排队", resumed);
+        }
+        dispatch();
+    }
+
+    /**
+     * 为本节点执行中的任务续约，停止已被取消或已被其他节点接管的任务，并回收其他节点失联后遗留的任务
+     */
+    @Scheduled(fixedDelayString = "${app.ingestion.heartbeat-interval:15000}")
+    public void renewLeases() {
+        if (!activeJobs.isEmpty()) {
+            ingestionJobRepository.renewLeases(activeJobs.keySet(), nodeId, LocalDateTime.now());
+            for (IngestionJob current : ingestionJobRepository.findAllById(activeJobs.keySet())) {
+                ActiveJob active = activeJobs.get(current.getId());
+                if (active == null) {
+                    continue;
+                }
+                if (current.getStatus() == IngestionJob.JobStatus.CANCELLED) {
+                    active.cancelled = true;
+                } else if (current.getStatus() != IngestionJob.JobStatus.RUNNING
+                        || !nodeId.equals(current.getOwnerNode())) {
+                    log.warn("入库任务租约已失效，停止执行: job={}", current.getJobId());
+                    active.leaseLost = true;
+                }
+            }
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        int requeued = ingestionJobRepository.requeueExpiredJobs(now.minusSeconds(leaseSeconds), now);
+        if (requeued > 0) {
+            log.warn("{} 个租约过期的入库任务已重新排队", requeued);
+            dispatch();
+        }
+
+        int expired = ingestionJobRepository.deleteStaleReservations(null,
+                now.minusSeconds(reservationTimeoutSeconds));
+        if (expired > 0) {
+            log.warn("回收 {} 个上传未完成的队列名额", expired);
+        }
+    }
+
+    /**
+     * 文档删除时立即停止本节点上该文档的任务
+     */
+    @EventListener
+    public void onIngestionCancelled(IngestionCancelledEvent event) {
+        activeJobs.values().stream()
+                .filter(active -> active.documentId.equals(event.documentId()))
+                .forEach(active -> active.cancelled = true);
+    }
+
+    /**
+     * 按空闲槽位认领排队中的任务并提交到工作线程池
+     *
+     * 新任务登记和任务完成时会立即调用；定时轮询用于拾取其他节点登记的任务
+     */
+    @Scheduled(fixedDelayString = "${app.ingestion.poll-interval:5000}")
+    public void dispatch() {
+        while (workerSlots.tryAcquire()) {
+            IngestionJob job = claimNextJob();
+            if (job == null) {
+                workerSlots.release();
+                return;
+            }
+
+            try {
+                ingestionExecutor.execute(() -> runJob(job));
+            } catch (TaskRejectedException e) {
+                log.warn("入库线程池拒绝任务，重新排队: {}", job.getJobId());
+                ingestionJobRepository.release(job.getId(), nodeId, LocalDateTime.now());
+                workerSlots.release();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 检查队列容量并为即将上传的文档登记预留任务，队列已满时拒绝上传
+     *
+     * 检查和登记在同一事务中持有队列咨询锁，各节点的并发上传依次占用名额
+     */
+    private IngestionJob reserveQueueSlot(String documentId) {
+        return transactionTemplate.execute(status -> {
+            ingestionJobRepository.lockQueue(QUEUE_LOCK_KEY);
+            long queued = ingestionJobRepository.countByStatusInAndLane(
+                    List.of(IngestionJob.JobStatus.RESERVED, IngestionJob.JobStatus.QUEUED),
+                    IngestionJob.JobLane.NORMAL);
+            if (queued >= queueCapacity) {
+                log.warn("入库队列已满: {}/{}", queued, queueCapacity);
+                throw new IngestionQueueFullException("入库队列已满，请稍后重试", retryAfterSeconds);
+            }
+            return ingestionJobRepository.save(IngestionJob.builder()
+                    .jobId(UUID.randomUUID().toString())
+                    .documentId(documentId)
+                    .status(IngestionJob.JobStatus.RESERVED)
+                    .lane(IngestionJob.JobLane.NORMAL)
+                    .ownerNode(nodeId)
+                    .build());
+        });
+    }
+
+    /**
+     * 认领最早排队的任务
+     *
+     * 上传任务优先；没有上传任务时才认领后台任务，且同时执行的后台任务不超过上限
+     */
+    private IngestionJob claimNextJob() {
+        IngestionJob job = claimNextJob(IngestionJob.JobLane.NORMAL);
+        if (job != null) {
+            return job;
+        }
+
+        long runningBackground = ingestionJobRepository.countByStatusAndLane(IngestionJob.JobStatus.RUNNING,
+                IngestionJob.JobLane.BACKGROUND);
+        if (runningBackground >= backgroundConcurrency) {
+            return null;
+        }
+        return claimNextJob(IngestionJob.JobLane.BACKGROUND);
+    }
+
+    private IngestionJob claimNextJob(IngestionJob.JobLane lane) {
+        List<IngestionJob> candidates = ingestionJobRepository.findByStatusAndLaneOrderByCreatedAtAsc(
+                IngestionJob.JobStatus.QUEUED, lane, PageRequest.of(0, 5));
+
+        for (IngestionJob candidate : candidates) {
+            if (ingestionJobRepository.claim(candidate.getId(), nodeId, LocalDateTime.now()) == 1) {
+                return ingestionJobRepository.findById(candidate.getId()).orElse(null);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 执行入库任务
+     */
+    private void runJob(IngestionJob job) {
+        ActiveJob active = new ActiveJob(job.getDocumentId());
+        activeJobs.put(job.getId(), active);
+        try {
+            log.info("开始执行入库任务: job={}, document={}, 第 {} 次尝试",
+                    job.getJobId(), job.getDocumentId(), job.getAttempts());
+
+            Optional<Document> documentOpt = documentRepository.findByDocumentId(job.getDocumentId());
+            if (documentOpt.isEmpty()) {
+                finishJob(job, IngestionJob.JobStatus.FAILED, "文档不存在: " + job.getDocumentId());
+                return;
+            }
+
+            Document document = documentOpt.get();
+            document.setStatus(Document.DocumentStatus.PROCESSING);
+            document = documentRepository.save(document);
+
+            documentService.processDocument(document, active::isStopped);
+            if (active.isStopped()) {
+                throw new CancellationException("入库任务已停止: " + job.getJobId());
+            }
+
+            Document.DocumentStatus result = documentRepository.findByDocumentId(job.getDocumentId())
+                    .map(Document::getStatus)
+                    .orElse(Document.DocumentStatus.FAILED);
+            if (result == Document.DocumentStatus.COMPLETED || result == Document.DocumentStatus.PARTIALLY_INDEXED) {
+                finishJob(job, IngestionJob.JobStatus.COMPLETED, null);
+            } else {
+                finishJob(job, IngestionJob.JobStatus.FAILED, "文档处理失败，状态: " + result);
+            }
+
+        } catch (CancellationException e) {
+            if (active.cancelled) {
+                // 删除文档时已清理的分块可能被停止前的最后几批重新写入
+                log.info("文档已删除，入库任务取消: job={}, document={}", job.getJobId(), job.getDocumentId());
+                documentService.discardIngestedChunks(job.getDocumentId());
+                finishJob(job, IngestionJob.JobStatus.CANCELLED, "文档已删除");
+            } else {
+                // 任务已由其他节点接管，不再更新任务状态
+                log.warn("入库任务已被其他节点接管: {}", job.getJobId());
+            }
+        } catch (Exception e) {
+            log.error("入库任务执行失败: {}", job.getJobId(), e);
+            finishJob(job, IngestionJob.JobStatus.FAILED, e.getMessage());
+        } finally {
+            activeJobs.remove(job.getId());
+            workerSlots.release();
+            dispatch();
+        }
+    }
+
+    /**
+     * 记录任务结束状态
+     *
+     * 只更新仍由本节点执行的任务，已被取消或已被其他节点接管的任务保持原状态
+     */
+    private void finishJob(IngestionJob job, IngestionJob.JobStatus status, String errorMessage) {
+        try {
+            String error = errorMessage != null && errorMessage.length() > 1000
+                    ? errorMessage.substring(0, 1000) : errorMessage;
+            int updated = ingestionJobRepository.finish(job.getId(), nodeId, status, error, LocalDateTime.now());
+            if (updated == 0) {
+                log.warn("入库任务已被取消或已由其他节点接管，未记录结束状态: job={}, 状态={}", job.getJobId(), status);
+                return;
+            }
+            log.info("入库任务结束: job={}, 状态={}", job.getJobId(), status);
+        } catch (Exception e) {
+            log.error("更新入库任务状态失败: {}", job.getJobId(), e);
+        }
+    }
+
+    private static String defaultNodeId() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.rag.service;
+
+import java.util.Arrays;
+
+/**
+ * 每页文本在全文中的起始偏移，用于把分块位置映射回页码
+ */
+public class PageOffsets {
+
+    private int[] starts;
+    private int count = 0;
+
+    public PageOffsets(int expectedPages) {
+        this.starts = new int[Math.max(1, expectedPages)];
+    }
+
+    public static PageOffsets of(int[] starts) {
+        PageOffsets offsets = new PageOffsets(starts.length);
+        System.arraycopy(starts, 0, offsets.starts, 0, starts.length);
+        offsets.count = starts.length;
+        return offsets;
+    }
+
+    /**
+     * 记录下一页的起始偏移
+     */
+    public void add(int start) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+        starts[count++] = start;
+    }
+
+    /**
+     * 返回全文偏移所在的页码（从 1 开始），只对已记录的页有效
+     */
+    public int pageAt(int offset) {
+        int index = Arrays.binarySearch(starts, 0, count, offset);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // 空白页与下一页起始偏移相同，取最后一个
+            while (index + 1 < count && starts[index + 1] == offset) {
+                index++;
+            }
+        }
+        return Math.max(0, index) + 1;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * 能提供页码映射的字符流
+     */
+    public interface Source {
+
+        /**
+         * 返回页偏移，不分页的内容返回 null
+         */
+        PageOffsets getPageOffsets();
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.rag.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * 按段落拉取文本的字符流
+ *
+ * 子类每次只产出一个段落，内存中只保留当前段落
+ */
+public abstract class ParagraphReader extends Reader {
+
+    private String currentText = "";
+    private int currentPosition = 0;
+
+    /**
+     * 返回下一个段落的文本（含结尾换行），没有更多段落时返回 null
+     */
+    protected abstract String nextParagraph() throws IOException;
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (currentPosition >= currentText.length()) {
+            String paragraph = nextParagraph();
+            if (paragraph == null) {
+                return -1;
+            }
+            currentText = paragraph;
+            currentPosition = 0;
+        }
+        int count = Math.min(length, currentText.length() - currentPosition);
+        currentText.getChars(currentPosition, currentPosition + count, buffer, offset);
+        currentPosition += count;
+        return count;
+    }
+}
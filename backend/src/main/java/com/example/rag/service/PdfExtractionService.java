@@ -0,0 +1,46 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * PDF文本提取服务
+ *
+ * 页数达到阈值的PDF按页码范围在共享的提取线程池中并行提取，小文件仍在当前线程顺序提取
+ */
+@Service
+@Slf4j
+public class PdfExtractionService {
+
+    private final ThreadPoolTaskExecutor pdfExtractionExecutor;
+
+    @Value("${app.ingestion.pdf.pages-per-read:10}")
+    private int pagesPerRead;
+
+    @Value("${app.ingestion.pdf.parallel-threshold-pages:200}")
+    private int parallelThresholdPages;
+
+    public PdfExtractionService(@Qualifier("pdfExtractionExecutor") ThreadPoolTaskExecutor pdfExtractionExecutor) {
+        this.pdfExtractionExecutor = pdfExtractionExecutor;
+    }
+
+    /**
+     * 打开PDF的按页文本流
+     */
+    public PdfTextReader open(Path filePath) throws IOException {
+        PdfTextReader reader = new PdfTextReader(filePath, pagesPerRead);
+        if (reader.getPageCount() >= parallelThresholdPages) {
+            // 在途范围为线程数的两倍，工作线程始终有下一段可做，同时限制提前提取的文本量
+            int parallelism = pdfExtractionExecutor.getMaxPoolSize();
+            reader.enableParallelExtraction(pdfExtractionExecutor, parallelism * 2);
+            log.info("PDF共 {} 页，按每段 {} 页并行提取: {}", reader.getPageCount(), pagesPerRead, filePath);
+        }
+        return reader;
+    }
+}
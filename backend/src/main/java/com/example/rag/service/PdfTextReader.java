@@ -0,0 +1,231 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * 按页流式读取PDF文本
+ *
+ * 每次只提取一小段页码范围的文本，PDFBox的流缓存放在临时文件中，
+ * 大PDF不会整体驻留在堆内存；同时记录每页文本的起始偏移，用于把分块位置映射回页码。
+ *
+ * 开启并行提取后，后续页码范围提前提交到线程池，结果按页码顺序消费；同时在途的范围数有上限，避免提前提取的文本堆积。
+ * PDDocument 不是线程安全的，每个同时执行的任务借用一个独立打开的 PDDocument，用完归还给后续范围复用，
+ * 整个文件只解析与并发数相同的次数
+ */
+@Slf4j
+public class PdfTextReader extends ParagraphReader implements PageOffsets.Source {
+
+    private final Path filePath;
+    private final PDDocument document;
+    private final PDFTextStripper stripper;
+    private final int pageCount;
+    private final int pagesPerRead;
+
+    private final Deque<String> pendingPages = new ArrayDeque<>();
+    private final Deque<CompletableFuture<List<String>>> inFlightRanges = new ArrayDeque<>();
+    private int nextPage = 1;
+
+    private Executor parallelExecutor;
+    private int maxInFlightRanges;
+
+    /**
+     * 并行提取用的空闲 PDDocument，由工作线程借用和归还
+     */
+    private final Deque<Extractor> idleExtractors = new ArrayDeque<>();
+    private boolean closed = false;
+
+    private final PageOffsets pageOffsets;
+    private int textLength = 0;
+
+    public PdfTextReader(Path filePath, int pagesPerRead) throws IOException {
+        this.filePath = filePath;
+        this.document = Loader.loadPDF(filePath.toFile(), IOUtils.createTempFileOnlyStreamCache());
+        this.stripper = new PDFTextStripper();
+        this.pageCount = document.getNumberOfPages();
+        this.pagesPerRead = Math.max(1, pagesPerRead);
+        this.pageOffsets = new PageOffsets(pageCount);
+        log.debug("打开PDF: {}, 共 {} 页", filePath, pageCount);
+    }
+
+    /**
+     * 一个独立打开的 PDDocument 及其文本提取器，同一时刻只由一个工作线程使用
+     */
+    private record Extractor(PDDocument document, PDFTextStripper stripper) {
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * 开启多线程提取，须在开始读取前调用
+     *
+     * @param maxInFlightRanges 同时提交的页码范围上限
+     */
+    public void enableParallelExtraction(Executor executor, int maxInFlightRanges) {
+        if (nextPage != 1) {
+            throw new IllegalStateException("已开始读取，不能切换为并行提取");
+        }
+        this.parallelExecutor = executor;
+        this.maxInFlightRanges = Math.max(1, maxInFlightRanges);
+        log.debug("PDF并行提取: {}, 共 {} 页, 在途范围上限 {}", filePath, pageCount, this.maxInFlightRanges);
+    }
+
+    /**
+     * 已读取页的起始偏移
+     */
+    @Override
+    public PageOffsets getPageOffsets() {
+        return pageOffsets;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inFlightRanges.forEach(range -> range.cancel(false));
+        inFlightRanges.clear();
+        synchronized (idleExtractors) {
+            closed = true;
+            // 仍在执行的任务归还时自行关闭
+            for (Extractor extractor : idleExtractors) {
+                closeQuietly(extractor);
+            }
+            idleExtractors.clear();
+        }
+        document.close();
+    }
+
+    /**
+     * 返回下一页的文本，必要时提取下一段页码范围
+     */
+    @Override
+    protected String nextParagraph() throws IOException {
+        if (pendingPages.isEmpty()) {
+            if (parallelExecutor != null) {
+                submitRanges();
+                if (inFlightRanges.isEmpty()) {
+                    return null;
+                }
+                pendingPages.addAll(awaitRange(inFlightRanges.poll()));
+                submitRanges();
+            } else {
+                if (nextPage > pageCount) {
+                    return null;
+                }
+                int endPage = Math.min(nextPage + pagesPerRead - 1, pageCount);
+                pendingPages.addAll(extractPages(document, stripper, nextPage, endPage));
+                nextPage = endPage + 1;
+            }
+        }
+
+        String pageText = pendingPages.poll();
+        pageOffsets.add(textLength);
+        textLength += pageText.length();
+        return pageText;
+    }
+
+    /**
+     * 补足在途的页码范围
+     */
+    private void submitRanges() {
+        while (inFlightRanges.size() < maxInFlightRanges && nextPage <= pageCount) {
+            int startPage = nextPage;
+            int endPage = Math.min(startPage + pagesPerRead - 1, pageCount);
+            inFlightRanges.add(CompletableFuture.supplyAsync(() -> extractRange(startPage, endPage), parallelExecutor));
+            nextPage = endPage + 1;
+        }
+    }
+
+    /**
+     * 在工作线程中用借来的 PDDocument 提取页码范围
+     */
+    private List<String> extractRange(int startPage, int endPage) {
+        Extractor extractor = borrowExtractor();
+        try {
+            return extractPages(extractor.document(), extractor.stripper(), startPage, endPage);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        } finally {
+            returnExtractor(extractor);
+        }
+    }
+
+    /**
+     * 取一个空闲的 PDDocument，没有时新打开一个
+     */
+    private Extractor borrowExtractor() {
+        synchronized (idleExtractors) {
+            if (closed) {
+                throw new CompletionException(new IOException("PDF读取已关闭: " + filePath));
+            }
+            Extractor idle = idleExtractors.poll();
+            if (idle != null) {
+                return idle;
+            }
+        }
+        try {
+            PDDocument rangeDocument = Loader.loadPDF(filePath.toFile(), IOUtils.createTempFileOnlyStreamCache());
+            log.debug("为并行提取打开PDF: {}", filePath);
+            return new Extractor(rangeDocument, new PDFTextStripper());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void returnExtractor(Extractor extractor) {
+        synchronized (idleExtractors) {
+            if (!closed) {
+                idleExtractors.push(extractor);
+                return;
+            }
+        }
+        closeQuietly(extractor);
+    }
+
+    private void closeQuietly(Extractor extractor) {
+        try {
+            extractor.document().close();
+        } catch (IOException e) {
+            log.warn("关闭PDF失败: {}", filePath, e);
+        }
+    }
+
+    private List<String> awaitRange(CompletableFuture<List<String>> range) throws IOException {
+        try {
+            return range.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 逐页提取文本，保留每页的边界
+     */
+    private List<String> extractPages(PDDocument source, PDFTextStripper pageStripper,
+                                      int startPage, int endPage) throws IOException {
+        List<String> pages = new ArrayList<>(endPage - startPage + 1);
+        for (int page = startPage; page <= endPage; page++) {
+            pageStripper.setStartPage(page);
+            pageStripper.setEndPage(page);
+            pages.add(pageStripper.getText(source));
+        }
+        log.debug("已提取PDF页: {}-{}/{}", startPage, endPage, pageCount);
+        return pages;
+    }
+}
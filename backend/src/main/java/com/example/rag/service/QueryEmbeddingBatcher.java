@@ -0,0 +1,228 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 查询向量化微批处理
+ *
+ * 并发到达的查询先进入队列，收集线程在第一个请求到达后等待一个很短的窗口（或凑满上限），
+ * 把窗口内的文本合并为一次 /api/embed 调用，再通过各自的future返回向量；
+ * 同一批内的相同文本只向量化一次。
+ * 排队的查询和待发出的批次都有上限，超出时立即返回错误；调用方最多等待配置的超时时间，Ollama卡住时不会无限阻塞
+ */
+@Service
+@Slf4j
+public class QueryEmbeddingBatcher {
+
+    private final EmbeddingModel embeddingModel;
+    private final LinkedBlockingQueue<PendingQuery> queue;
+    private final ExecutorService collectorExecutor;
+    private final ExecutorService embedExecutor;
+
+    private final Timer waitTimer;
+    private final Timer embedTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter queryCounter;
+
+    @Value("${app.embedding.query-batch.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.embedding.query-batch.window-ms:3}")
+    private long windowMs;
+
+    @Value("${app.embedding.query-batch.max-size:32}")
+    private int maxSize;
+
+    @Value("${app.embedding.query-batch.timeout-ms:10000}")
+    private long timeoutMs;
+
+    private volatile boolean running = true;
+
+    public QueryEmbeddingBatcher(EmbeddingModel embeddingModel,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.embedding.query-batch.concurrency:2}") int concurrency,
+                                 @Value("${app.embedding.query-batch.queue-capacity:1024}") int queueCapacity,
+                                 @Value("${app.embedding.query-batch.max-pending-batches:16}") int maxPendingBatches) {
+        this.embeddingModel = embeddingModel;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.waitTimer = Timer.builder("rag.query.embedding.batch.wait")
+                .description("查询从入队到所在批次发出的等待时间")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.embedTimer = Timer.builder("rag.query.embedding.batch.latency")
+                .description("每次批量 /api/embed 调用的耗时")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("rag.query.embedding.batch.size")
+                .description("每次批量调用合并的查询数")
+                .register(meterRegistry);
+        this.queryCounter = Counter.builder("rag.query.embedding.batch.queries")
+                .description("经微批处理向量化的查询数")
+                .register(meterRegistry);
+
+        this.collectorExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-embed-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.embedExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxPendingBatches), runnable -> {
+            Thread thread = new Thread(runnable, "query-embed-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        collectorExecutor.execute(this::collectLoop);
+    }
+
+    /**
+     * 等待加入批次的查询
+     */
+    private record PendingQuery(String text, CompletableFuture<float[]> future, long enqueuedNanos) {
+    }
+
+    /**
+     * 提交一个查询文本，向量在所在批次完成后通过future返回；队列已满时返回失败的future
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        try {
+            if (!enabled || !running) {
+                return CompletableFuture.supplyAsync(() -> embeddingModel.embed(text), embedExecutor);
+            }
+            CompletableFuture<float[]> future = new CompletableFuture<>();
+            if (!queue.offer(new PendingQuery(text, future, System.nanoTime()))) {
+                throw new RejectedExecutionException("查询向量化队列已满");
+            }
+            return future;
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * 同步向量化一个查询文本，超过配置的超时时间时抛出异常
+     */
+    public float[] embed(String text) {
+        try {
+            return submit(text).orTimeout(timeoutMs, TimeUnit.MILLISECONDS).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new IllegalStateException("查询向量化超时（" + timeoutMs + "ms）", e.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void collectLoop() {
+        while (running) {
+            List<PendingQuery> batch = new ArrayList<>();
+            try {
+                PendingQuery first = queue.take();
+                batch.add(first);
+
+                // 窗口从第一个请求到达时开始计算，凑满上限时立即发出
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+                while (batch.size() < maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    PendingQuery next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                queue.drainTo(batch, maxSize - batch.size());
+
+                embedExecutor.execute(() -> embedBatch(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failAll(batch, new IllegalStateException("查询向量化服务已关闭"));
+                return;
+            } catch (RejectedExecutionException e) {
+                log.warn("待发出的查询向量化批次已达上限或服务已关闭，{} 个请求返回错误", batch.size());
+                failAll(batch, e);
+            } catch (Exception e) {
+                log.error("查询向量化批次调度失败", e);
+                failAll(batch, e);
+            }
+        }
+    }
+
+    private static void failAll(List<PendingQuery> batch, Throwable error) {
+        batch.forEach(pending -> pending.future().completeExceptionally(error));
+    }
+
+    private void embedBatch(List<PendingQuery> queued) {
+        // 已超时放弃的请求不再发送
+        List<PendingQuery> batch = queued.stream()
+                .filter(pending -> !pending.future().isDone())
+                .toList();
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long dispatchNanos = System.nanoTime();
+        for (PendingQuery pending : batch) {
+            waitTimer.record(dispatchNanos - pending.enqueuedNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        // 相同文本只发送一次
+        Map<String, List<PendingQuery>> byText = new LinkedHashMap<>();
+        for (PendingQuery pending : batch) {
+            byText.computeIfAbsent(pending.text(), text -> new ArrayList<>()).add(pending);
+        }
+        List<String> texts = new ArrayList<>(byText.keySet());
+
+        try {
+            List<float[]> vectors = embedTimer.recordCallable(() -> embeddingModel.embed(texts));
+            batchSizeSummary.record(texts.size());
+            queryCounter.increment(batch.size());
+            for (int i = 0; i < texts.size(); i++) {
+                float[] vector = vectors.get(i);
+                byText.get(texts.get(i)).forEach(pending -> pending.future().complete(vector));
+            }
+            log.debug("批量查询向量化完成: {} 个请求, {} 个不同文本", batch.size(), texts.size());
+        } catch (Exception e) {
+            log.warn("批量查询向量化失败，{} 个请求返回错误: {}", batch.size(), e.getMessage());
+            failAll(batch, e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        collectorExecutor.shutdownNow();
+        embedExecutor.shutdown();
+        List<PendingQuery> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        failAll(remaining, new IllegalStateException("查询向量化服务已关闭"));
+    }
+}
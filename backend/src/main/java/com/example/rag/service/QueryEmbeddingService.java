@@ -0,0 +1,116 @@
+package com.example.rag.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+
+/**
+ * 查询向量化服务
+ *
+ * 在EmbeddingModel前加两级缓存：L1为本节点的Caffeine缓存，L2为各节点共享的Redis。
+ * 键为 (embedding模型, 规范化查询文本的SHA-256)，同一问题在任一节点向量化后，其他请求不再调用Ollama；
+ * 两级都未命中的查询交给微批处理，与同一时刻的其他查询合并为一次调用
+ */
+@Service
+@Slf4j
+public class QueryEmbeddingService {
+
+    private final QueryEmbeddingBatcher queryEmbeddingBatcher;
+    private final RedisTemplate<String, byte[]> binaryRedisTemplate;
+    private final Cache<String, float[]> localCache;
+
+    private final Counter l2HitCounter;
+    private final Counter l2MissCounter;
+
+    @Value("${app.embedding.query-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.embedding.query-cache.redis-ttl:24h}")
+    private Duration redisTtl;
+
+    @Value("${app.embedding.query-cache.key-prefix:rag:qemb:}")
+    private String keyPrefix;
+
+    @Value("${spring.ai.ollama.embedding.options.model:nomic-embed-text}")
+    private String embeddingModelName;
+
+    public QueryEmbeddingService(QueryEmbeddingBatcher queryEmbeddingBatcher,
+                                 RedisTemplate<String, byte[]> binaryRedisTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.embedding.query-cache.local-max-entries:10000}") long localMaxEntries,
+                                 @Value("${app.embedding.query-cache.local-ttl:1h}") Duration localTtl) {
+        this.queryEmbeddingBatcher = queryEmbeddingBatcher;
+        this.binaryRedisTemplate = binaryRedisTemplate;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(localMaxEntries)
+                .expireAfterAccess(localTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "rag.query.embedding.l1");
+        this.l2HitCounter = Counter.builder("rag.query.embedding.l2.hits")
+                .description("查询向量Redis缓存命中次数")
+                .register(meterRegistry);
+        this.l2MissCounter = Counter.builder("rag.query.embedding.l2.misses")
+                .description("查询向量Redis缓存未命中次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 查询文本向量化，依次查L1、L2缓存，都未命中时经微批处理向量化并回填两级缓存
+     */
+    public float[] embed(String query) {
+        if (!enabled) {
+            return queryEmbeddingBatcher.embed(query);
+        }
+
+        String key = cacheKey(query);
+        float[] vector = localCache.getIfPresent(key);
+        if (vector != null) {
+            return vector;
+        }
+
+        vector = readRemote(key);
+        if (vector == null) {
+            long start = System.nanoTime();
+            vector = queryEmbeddingBatcher.embed(query);
+            log.debug("查询向量化耗时: {}ms", (System.nanoTime() - start) / 1_000_000);
+            writeRemote(key, vector);
+        }
+        localCache.put(key, vector);
+        return vector;
+    }
+
+    private float[] readRemote(String key) {
+        try {
+            byte[] value = binaryRedisTemplate.opsForValue().get(key);
+            if (value != null) {
+                l2HitCounter.increment();
+                return EmbeddingCacheService.decode(value);
+            }
+        } catch (Exception e) {
+            log.warn("读取查询向量缓存失败，按未命中处理: {}", e.getMessage());
+        }
+        l2MissCounter.increment();
+        return null;
+    }
+
+    private void writeRemote(String key, float[] vector) {
+        try {
+            binaryRedisTemplate.opsForValue().set(key, EmbeddingCacheService.encode(vector), redisTtl);
+        } catch (Exception e) {
+            log.warn("写入查询向量缓存失败: {}", e.getMessage());
+        }
+    }
+
+    private String cacheKey(String query) {
+        return keyPrefix + embeddingModelName + ":" + EmbeddingCacheService.sha256(EmbeddingCacheService.normalize(query));
+    }
+}
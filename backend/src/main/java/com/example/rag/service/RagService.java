@@ -454,7 +454,7 @@ public class RagService {
             
         } catch (Exception e) {
             log.error("生成AI回答失败", e);
-            return "抱歉，生成回答时发生了错误。";
+            throw new IllegalStateException("生成AI回答失败", e);
         }
     }
     
@@ -551,7 +551,7 @@ public class RagService {
     }
     
     /**
-     * 单轮查询处理（快速响应）
+     * 单轮查询处理（快速响应），生成失败时返回 null，由调用方决定如何提示且不缓存
      */
     public String queryWithChunksSingleRound(String question, List<DocumentChunk> relevantChunks) {
         try {
@@ -569,7 +569,7 @@ public class RagService {
             
         } catch (Exception e) {
             log.error("单轮RAG查询处理失败", e);
-            return "抱歉，处理您的问题时发生了错误，请稍后重试。";
+            return null;
         }
     }
 } 
\ No newline at end of file
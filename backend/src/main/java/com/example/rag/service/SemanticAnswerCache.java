@@ -0,0 +1,272 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.SmartQueryResponse;
+import com.example.rag.model.DocumentChunk;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 按问题向量缓存生成的回答
+ *
+ * 只有当新问题与已缓存问题的向量足够接近、且本次检索到的分块集合完全相同时才复用回答，
+ * 因此条目按分块集合分组，查找时只在同组内比较余弦相似度。
+ * 每组记录其分块所属的文档，文档入库、补写或删除时只淘汰依赖该文档的回答。
+ * 条目同时记录写入时的语料版本号（各节点共享），版本号不一致视为未命中，其他节点上的文档变化同样使本节点的回答失效
+ */
+@Service
+@Slf4j
+public class SemanticAnswerCache {
+
+    /**
+     * 未检索到分块（通用AI回答）时的分组键
+     */
+    private static final String NO_CHUNKS = "";
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    @Value("${app.answer-cache.semantic.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.answer-cache.semantic.min-similarity:0.97}")
+    private double minSimilarity;
+
+    @Value("${app.answer-cache.semantic.max-groups:5000}")
+    private int maxGroups;
+
+    @Value("${app.answer-cache.semantic.max-entries-per-group:8}")
+    private int maxEntriesPerGroup;
+
+    @Value("${app.answer-cache.semantic.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    /**
+     * 分块集合 → 该集合下缓存的回答，按最近访问排序
+     */
+    private final LinkedHashMap<String, Group> groups = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 文档ID → 依赖该文档的分块集合
+     */
+    private final Map<String, Set<String>> groupsByDocument = new HashMap<>();
+
+    /**
+     * 每次淘汰递增；写入时代数已变化说明生成期间文档发生过变化，丢弃该回答
+     */
+    private long generation;
+
+    /**
+     * 缓存中条目所属的语料版本号
+     */
+    private long latestCorpusVersion;
+
+    public SemanticAnswerCache(MeterRegistry meterRegistry) {
+        this.hitCounter = Counter.builder("rag.answer.semantic.cache.hits")
+                .description("语义回答缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("rag.answer.semantic.cache.misses")
+                .description("语义回答缓存未命中次数")
+                .register(meterRegistry);
+        this.evictionCounter = Counter.builder("rag.answer.semantic.cache.evictions")
+                .description("因文档变化淘汰的语义回答缓存分组数")
+                .register(meterRegistry);
+        Gauge.builder("rag.answer.semantic.cache.size", this, SemanticAnswerCache::size)
+                .description("语义回答缓存条目数")
+                .register(meterRegistry);
+    }
+
+    private record Entry(float[] vector, SmartQueryResponse response, long corpusVersion, long createdNanos) {
+    }
+
+    private record Group(Set<String> documentIds, List<Entry> entries) {
+    }
+
+    /**
+     * 查找可复用的回答，未命中返回 null
+     *
+     * @param chunks        本次检索到的分块，为空表示将由通用AI回答
+     * @param corpusVersion 检索前读取的语料版本号
+     */
+    public synchronized SmartQueryResponse get(float[] questionVector, List<DocumentChunk> chunks,
+                                               long corpusVersion) {
+        if (!enabled || questionVector == null) {
+            return null;
+        }
+        if (corpusVersion != latestCorpusVersion) {
+            adoptCorpusVersion(corpusVersion);
+        }
+
+        Group group = groups.get(groupKey(chunks));
+        if (group != null) {
+            float[] unit = normalize(questionVector);
+            long now = System.nanoTime();
+            group.entries().removeIf(entry -> isExpired(entry, now));
+            for (Entry entry : group.entries()) {
+                if (entry.corpusVersion() != corpusVersion) {
+                    continue;
+                }
+                double similarity = dot(unit, entry.vector());
+                if (similarity >= minSimilarity) {
+                    hitCounter.increment();
+                    log.info("命中语义回答缓存，问题相似度: {}", similarity);
+                    return entry.response();
+                }
+            }
+        }
+        missCounter.increment();
+        return null;
+    }
+
+    /**
+     * 当前代数，应在检索前读取，写入时原样传回
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 缓存回答及其依赖的分块，只缓存有效的回答，错误和系统提示不缓存
+     *
+     * @param expectedGeneration 检索前读取的代数
+     * @param corpusVersion      检索前读取的语料版本号
+     */
+    public synchronized void put(float[] questionVector, List<DocumentChunk> chunks, SmartQueryResponse response,
+                                 long expectedGeneration, long corpusVersion) {
+        if (!enabled || questionVector == null || expectedGeneration != generation
+                || corpusVersion < latestCorpusVersion || !AnswerCacheService.isCacheable(response)) {
+            return;
+        }
+        if (corpusVersion > latestCorpusVersion) {
+            adoptCorpusVersion(corpusVersion);
+        }
+
+        String key = groupKey(chunks);
+        Group group = groups.computeIfAbsent(key, k -> {
+            Set<String> documentIds = chunks.stream()
+                    .map(DocumentChunk::getDocumentId)
+                    .collect(Collectors.toSet());
+            documentIds.forEach(documentId ->
+                    groupsByDocument.computeIfAbsent(documentId, id -> new HashSet<>()).add(k));
+            return new Group(documentIds, new ArrayList<>());
+        });
+        group.entries().add(new Entry(normalize(questionVector), response, corpusVersion, System.nanoTime()));
+        if (group.entries().size() > maxEntriesPerGroup) {
+            group.entries().remove(0);
+        }
+
+        Iterator<Map.Entry<String, Group>> eldest = groups.entrySet().iterator();
+        while (groups.size() > maxGroups && eldest.hasNext()) {
+            Map.Entry<String, Group> evicted = eldest.next();
+            eldest.remove();
+            unindex(evicted.getKey(), evicted.getValue());
+        }
+    }
+
+    /**
+     * 淘汰依赖指定文档的全部回答
+     */
+    public synchronized void evictDocument(String documentId) {
+        generation++;
+        Set<String> keys = groupsByDocument.remove(documentId);
+        if (keys == null) {
+            return;
+        }
+        for (String key : keys) {
+            Group group = groups.remove(key);
+            if (group != null) {
+                unindex(key, group);
+                evictionCounter.increment();
+            }
+        }
+        log.debug("文档变化，淘汰 {} 组语义回答缓存: {}", keys.size(), documentId);
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexChanged(DocumentIndexChangedEvent event) {
+        evictDocument(event.documentId());
+    }
+
+    public synchronized int size() {
+        return groups.values().stream().mapToInt(group -> group.entries().size()).sum();
+    }
+
+    /**
+     * 语料版本号变化（其他节点的文档变化，或Redis不可用时退回本节点计数）时清空其他版本的回答
+     */
+    private void adoptCorpusVersion(long corpusVersion) {
+        latestCorpusVersion = corpusVersion;
+        generation++;
+        groups.clear();
+        groupsByDocument.clear();
+    }
+
+    private void unindex(String key, Group group) {
+        for (String documentId : group.documentIds()) {
+            Set<String> keys = groupsByDocument.get(documentId);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    groupsByDocument.remove(documentId);
+                }
+            }
+        }
+    }
+
+    /**
+     * 分块集合的键：排序后的分块ID，与检索顺序无关
+     */
+    private static String groupKey(List<DocumentChunk> chunks) {
+        if (chunks == null || chunks.isEmpty()) {
+            return NO_CHUNKS;
+        }
+        return String.join(",", chunks.stream()
+                .map(DocumentChunk::getId)
+                .collect(Collectors.toCollection(TreeSet::new)));
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdNanos() > TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] unit = new float[vector.length];
+        if (norm == 0) {
+            return unit;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return -1.0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按查询向量邻域缓存检索结果
+ *
+ * 新查询的向量与某个已缓存查询的余弦距离不超过阈值、且检索参数相同时，直接复用其分块列表，不再访问ES。
+ * 近邻查找使用随机超平面LSH：每个查询向量在多张表中各落入一个桶，只与同桶的候选精确比较余弦相似度。
+ * 条目数有上限并按最近访问淘汰；任一文档的可检索内容变化时全部失效。
+ * 条目记录写入时的语料版本号（各节点共享），版本号不一致视为未命中，其他节点上的文档变化同样使本节点的条目失效
+ */
+@Service
+@Slf4j
+public class SemanticRetrievalCache {
+
+    private final CorpusVersionService corpusVersionService;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    @Value("${app.vector-store.retrieval-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.vector-store.retrieval-cache.max-distance:0.05}")
+    private double maxDistance;
+
+    @Value("${app.vector-store.retrieval-cache.max-entries:2048}")
+    private int maxEntries;
+
+    @Value("${app.vector-store.retrieval-cache.ttl-seconds:600}")
+    private long ttlSeconds;
+
+    @Value("${app.vector-store.retrieval-cache.lsh-tables:8}")
+    private int lshTables;
+
+    @Value("${app.vector-store.retrieval-cache.lsh-bits:10}")
+    private int lshBits;
+
+    /**
+     * 随机超平面，首次写入时按向量维度生成；[表][位][维度]
+     */
+    private float[][][] hyperplanes;
+
+    /**
+     * 每张表的桶：签名 → 条目
+     */
+    private List<Map<Integer, List<Entry>>> tables;
+
+    /**
+     * 按访问顺序排列的全部条目，用于淘汰
+     */
+    private final LinkedHashMap<Entry, Boolean> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 失效代数，检索开始后发生失效的结果不写入缓存
+     */
+    private long generation;
+
+    /**
+     * 缓存中条目所属的语料版本号
+     */
+    private long latestCorpusVersion;
+
+    public SemanticRetrievalCache(MeterRegistry meterRegistry, CorpusVersionService corpusVersionService) {
+        this.corpusVersionService = corpusVersionService;
+        this.hitCounter = Counter.builder("rag.retrieval.cache.hits")
+                .description("检索结果语义缓存命中次数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("rag.retrieval.cache.misses")
+                .description("检索结果语义缓存未命中次数")
+                .register(meterRegistry);
+        Gauge.builder("rag.retrieval.cache.size", this, SemanticRetrievalCache::size)
+                .description("检索结果语义缓存条目数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 缓存条目，params 为影响检索结果的参数（topK、阈值等）；按引用比较，避免计算结果列表的哈希
+     */
+    private static final class Entry {
+        private final float[] vector;
+        private final int[] signatures;
+        private final String params;
+        private final Object value;
+        private final long corpusVersion;
+        private final long createdNanos;
+
+        private Entry(float[] vector, int[] signatures, String params, Object value, long corpusVersion,
+                      long createdNanos) {
+            this.vector = vector;
+            this.signatures = signatures;
+            this.params = params;
+            this.value = value;
+            this.corpusVersion = corpusVersion;
+            this.createdNanos = createdNanos;
+        }
+    }
+
+    /**
+     * 当前语料版本号，检索前获取，查找和写入时传入
+     */
+    public long corpusVersion() {
+        return enabled ? corpusVersionService.currentVersion() : 0L;
+    }
+
+    /**
+     * 当前失效代数，检索前获取，写入时传回
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    /**
+     * 查找与查询向量足够接近、参数相同且属于当前语料版本的已缓存结果，未命中返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(float[] vector, String params, long corpusVersion) {
+        if (!enabled) {
+            return null;
+        }
+        if (corpusVersion != latestCorpusVersion) {
+            adoptCorpusVersion(corpusVersion);
+        }
+        if (tables == null || vector.length != hyperplanes[0][0].length) {
+            missCounter.increment();
+            return null;
+        }
+
+        float[] unit = normalize(vector);
+        double minSimilarity = 1.0 - maxDistance;
+        long now = System.nanoTime();
+        Entry best = null;
+        double bestSimilarity = minSimilarity;
+        for (int t = 0; t < lshTables; t++) {
+            List<Entry> bucket = tables.get(t).get(signature(unit, t));
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry : bucket) {
+                if (entry.corpusVersion != corpusVersion || !entry.params.equals(params)
+                        || isExpired(entry, now)) {
+                    continue;
+                }
+                double similarity = dot(unit, entry.vector);
+                if (similarity >= bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+
+        if (best == null) {
+            missCounter.increment();
+            return null;
+        }
+        entries.get(best);
+        hitCounter.increment();
+        log.debug("检索结果语义缓存命中，相似度: {}", bestSimilarity);
+        return (T) best.value;
+    }
+
+    /**
+     * 写入检索结果；检索期间发生过失效或语料版本已更新时丢弃
+     *
+     * @param corpusVersion 检索前获取的语料版本号
+     */
+    public synchronized void put(float[] vector, String params, Object value, long expectedGeneration,
+                                 long corpusVersion) {
+        if (!enabled || expectedGeneration != generation || corpusVersion < latestCorpusVersion) {
+            return;
+        }
+        if (corpusVersion > latestCorpusVersion) {
+            adoptCorpusVersion(corpusVersion);
+        }
+        if (hyperplanes == null) {
+            initialize(vector.length);
+        } else if (vector.length != hyperplanes[0][0].length) {
+            return;
+        }
+
+        float[] unit = normalize(vector);
+        int[] signatures = new int[lshTables];
+        for (int t = 0; t < lshTables; t++) {
+            signatures[t] = signature(unit, t);
+        }
+        Entry entry = new Entry(unit, signatures, params, value, corpusVersion, System.nanoTime());
+        for (int t = 0; t < lshTables; t++) {
+            tables.get(t).computeIfAbsent(signatures[t], key -> new ArrayList<>()).add(entry);
+        }
+        entries.put(entry, Boolean.TRUE);
+
+        Iterator<Entry> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            eldest.remove();
+            removeFromTables(evicted);
+        }
+    }
+
+    /**
+     * 清空全部条目
+     */
+    public synchronized void invalidateAll() {
+        generation++;
+        entries.clear();
+        if (tables != null) {
+            tables.forEach(Map::clear);
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onDocumentIndexChanged(DocumentIndexChangedEvent event) {
+        invalidateAll();
+        log.debug("文档内容变化，检索结果语义缓存已清空: {}", event.documentId());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 语料版本号变化（其他节点的文档变化，或Redis不可用时退回本节点计数）时清空其他版本的条目
+     */
+    private void adoptCorpusVersion(long corpusVersion) {
+        latestCorpusVersion = corpusVersion;
+        invalidateAll();
+    }
+
+    private void initialize(int dimensions) {
+        Random random = new Random(42);
+        hyperplanes = new float[lshTables][lshBits][dimensions];
+        for (float[][] table : hyperplanes) {
+            for (float[] plane : table) {
+                for (int d = 0; d < dimensions; d++) {
+                    plane[d] = (float) random.nextGaussian();
+                }
+            }
+        }
+        tables = new ArrayList<>(lshTables);
+        for (int t = 0; t < lshTables; t++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    private int signature(float[] vector, int table) {
+        int signature = 0;
+        float[][] planes = hyperplanes[table];
+        for (int bit = 0; bit < planes.length; bit++) {
+            if (dot(vector, planes[bit]) >= 0) {
+                signature |= 1 << bit;
+            }
+        }
+        return signature;
+    }
+
+    private void removeFromTables(Entry entry) {
+        for (int t = 0; t < lshTables; t++) {
+            List<Entry> bucket = tables.get(t).get(entry.signatures[t]);
+            if (bucket != null) {
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    tables.get(t).remove(entry.signatures[t]);
+                }
+            }
+        }
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.createdNanos > TimeUnit.SECONDS.toNanos(ttlSeconds);
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = Math.sqrt(dot(vector, vector));
+        float[] unit = new float[vector.length];
+        if (norm == 0) {
+            return unit;
+        }
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
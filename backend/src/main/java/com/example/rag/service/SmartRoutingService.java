@@ -6,12 +6,17 @@ import com.example.rag.model.Document;
 import com.example.rag.model.DocumentChunk;
 import com.example.rag.repository.DocumentRepository;
 import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.service.VectorSearchService.ScoredChunk;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,7 +26,13 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.Set;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.Map;
 
@@ -39,10 +50,51 @@ public class SmartRoutingService {
     private final ChatClient chatClient;
     private final DocumentRepository documentRepository;
     private final DocumentChunkRepository documentChunkRepository;
+    private final AnswerCacheService answerCacheService;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final QueryEmbeddingService queryEmbeddingService;
+    private final MeterRegistry meterRegistry;
+    private final StreamAdmissionService streamAdmissionService;
+    private final SimpleAsyncTaskExecutor streamExecutor;
     
-    // 为了测试开发方便，暂时禁用缓存机制
-    // private final Map<String, Boolean> queryConsistencyCache = new ConcurrentHashMap<>();
-    // private static final int MAX_CACHE_SIZE = 1000;
+    /**
+     * 正在处理的问题（按规范化文本），相同问题的并发请求共用一次检索和生成
+     */
+    private final Map<String, CompletableFuture<SmartQueryResponse>> queriesInFlight = new ConcurrentHashMap<>();
+    private final Map<String, StreamBroadcast> streamsInFlight = new ConcurrentHashMap<>();
+    
+    /**
+     * 等待相同问题的处理结果的最长时间，超时后自行处理
+     */
+    @Value("${app.answer-cache.coalesce-timeout-ms:60000}")
+    private long coalesceTimeoutMs;
+    
+    /**
+     * 流式连接的最长时间
+     */
+    @Value("${app.stream.emitter-timeout-ms:600000}")
+    private long emitterTimeoutMs;
+    
+    /**
+     * 模型流式输出两段内容之间的最长间隔，超过时按生成失败结束
+     */
+    @Value("${app.stream.idle-timeout-ms:60000}")
+    private long streamIdleTimeoutMs;
+    
+    /**
+     * 问答结果缓存的路由名，普通查询和流式查询共用
+     */
+    private static final String ANSWER_CACHE_ROUTE = "smart";
+    
+    private static final String LIBRARY_STREAM_SOURCE = "📚 基于图书馆资源";
+    private static final String GENERAL_STREAM_SOURCE = "🤖 基于通用知识";
+    private static final String GENERAL_NOTE = "此回答基于AI的通用知识，建议查阅相关专业资料进行验证";
+    private static final String BUSY_MESSAGE = "当前提问人数较多，请稍后重试。";
+    
+    /**
+     * 正式回答前的标题，缓存时与思考过程一起去除
+     */
+    private static final Pattern FORMAL_ANSWER_HEADER = Pattern.compile("^\\*\\*正式回答[：:]\\*\\*\\s*");
     
     // 图书馆相关关键词（移除硬编码的技术词汇，保持通用性）
     private static final List<String> LIBRARY_KEYWORDS = Arrays.asList(
@@ -156,24 +208,37 @@ public class SmartRoutingService {
                         .build();
             }
             
-            // 分析问题类型
-            QuestionAnalysis analysis = analyzeQuestion(question);
+            // 语料版本号在检索前读取，缓存条目和合并的请求都按该版本区分
+            long corpusVersion = answerCacheService.corpusVersion();
             
-            // 优先尝试图书馆资源（快速检索）
-            SmartQueryResponse libraryResponse = tryLibraryResourcesFastWithMetrics(question, metrics);
-            if (libraryResponse != null) {
+            // 相同问题在语料未变化时直接返回缓存的回答
+            SmartQueryResponse cachedResponse = answerCacheService.get(question, ANSWER_CACHE_ROUTE, corpusVersion);
+            if (cachedResponse != null) {
                 metrics.setTotalEndTime(System.currentTimeMillis());
-                metrics.logPerformanceBreakdown("📚 基于文档查询");
-                log.info("✅ 图书馆资源成功提供答案");
-                return libraryResponse;
+                log.info("⚡ 缓存回答响应耗时: {}ms", metrics.getTotalDuration());
+                return cachedResponse;
             }
             
-            // 图书馆资源无法提供相关信息，切换到通用AI
-            log.info("🤖 图书馆资源无法提供相关信息，切换到通用AI");
-            SmartQueryResponse generalResponse = useGeneralAIWithMetrics(question, metrics);
-            metrics.setTotalEndTime(System.currentTimeMillis());
-            metrics.logPerformanceBreakdown("🤖 通用AI查询");
-            return generalResponse;
+            // 相同问题正在处理时等待其结果，共用一次检索和生成
+            String flightKey = corpusVersion + ":" + AnswerCacheService.normalizeQuestion(question);
+            CompletableFuture<SmartQueryResponse> flight = new CompletableFuture<>();
+            CompletableFuture<SmartQueryResponse> inFlight = queriesInFlight.putIfAbsent(flightKey, flight);
+            if (inFlight != null) {
+                log.info("🔗 相同问题正在处理，等待其结果: {}", question);
+                meterRegistry.counter("rag.query.coalesced", "mode", "query").increment();
+                SmartQueryResponse shared = awaitInFlight(inFlight, question);
+                return shared != null ? shared : routeQuestion(question, metrics, corpusVersion);
+            }
+            try {
+                SmartQueryResponse response = routeQuestion(question, metrics, corpusVersion);
+                flight.complete(response);
+                return response;
+            } catch (RuntimeException e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                queriesInFlight.remove(flightKey, flight);
+            }
             
         } catch (Exception e) {
             metrics.setTotalEndTime(System.currentTimeMillis());
@@ -187,51 +252,211 @@ public class SmartRoutingService {
         }
     }
     
+    /**
+     * 等待相同问题的处理结果，超时或处理失败时返回 null，由调用方自行处理
+     */
+    private SmartQueryResponse awaitInFlight(CompletableFuture<SmartQueryResponse> inFlight, String question) {
+        try {
+            return inFlight.get(coalesceTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("等待相同问题的结果超时（{}ms），自行处理: {}", coalesceTimeoutMs, question);
+        } catch (ExecutionException e) {
+            log.warn("相同问题的处理失败，自行处理: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待相同问题的结果被中断", e);
+        }
+        return null;
+    }
+    
+    /**
+     * 按路由回答问题：优先基于文档，无相关文档时使用通用AI
+     */
+    private SmartQueryResponse routeQuestion(String question, PerformanceMetrics metrics, long corpusVersion) {
+        // 分析问题类型
+        QuestionAnalysis analysis = analyzeQuestion(question);
+        
+        // 问题向量在检索和语义回答缓存之间共用
+        AnswerContext context = newAnswerContext(question, corpusVersion);
+        
+        // 优先尝试图书馆资源（快速检索）
+        SmartQueryResponse libraryResponse = tryLibraryResourcesFastWithMetrics(question, metrics, context);
+        if (libraryResponse != null) {
+            metrics.setTotalEndTime(System.currentTimeMillis());
+            metrics.logPerformanceBreakdown("📚 基于文档查询");
+            log.info("✅ 图书馆资源成功提供答案");
+            cacheAnswer(question, context, libraryResponse);
+            return libraryResponse;
+        }
+        
+        // 相近的问题同样没有检索到文档时复用其通用AI回答
+        SmartQueryResponse cachedGeneral = semanticAnswerCache.get(context.questionVector, List.of(),
+                context.corpusVersion);
+        if (cachedGeneral != null) {
+            metrics.setTotalEndTime(System.currentTimeMillis());
+            log.info("⚡ 语义缓存回答响应耗时: {}ms", metrics.getTotalDuration());
+            cacheAnswer(question, context, cachedGeneral);
+            return cachedGeneral;
+        }
+        
+        // 图书馆资源无法提供相关信息，切换到通用AI
+        log.info("🤖 图书馆资源无法提供相关信息，切换到通用AI");
+        SmartQueryResponse generalResponse = useGeneralAIWithMetrics(question, metrics);
+        metrics.setTotalEndTime(System.currentTimeMillis());
+        metrics.logPerformanceBreakdown("🤖 通用AI查询");
+        cacheAnswer(question, context, generalResponse);
+        cacheSemanticAnswer(context, List.of(), generalResponse);
+        return generalResponse;
+    }
+    
     /**
      * 流式智能查询处理
      */
     public SseEmitter smartQueryStream(String question) {
-        SseEmitter emitter = new SseEmitter(600000L); // 10分钟超时
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
         
-        // 在新线程中处理，避免阻塞
-        new Thread(() -> {
+        // 相同问题正在流式生成时加入其广播，先回放已生成的内容；语料版本号在检索前读取
+        long corpusVersion = answerCacheService.corpusVersion();
+        String flightKey = corpusVersion + ":" + AnswerCacheService.normalizeQuestion(question);
+        // 已取消（订阅者全部断开）的广播不再加入，由本次请求重新生成
+        StreamBroadcast broadcast = new StreamBroadcast();
+        StreamBroadcast inFlight = streamsInFlight.compute(flightKey, (key, existing) ->
+                existing != null && !existing.isCancelled() ? existing : broadcast);
+        if (inFlight != broadcast) {
+            log.info("🔗 相同问题正在流式生成，加入广播: {}", question);
+            meterRegistry.counter("rag.query.coalesced", "mode", "stream").increment();
+            inFlight.subscribe(emitter);
+            return emitter;
+        }
+        broadcast.subscribe(emitter);
+        broadcast.onFinish(() -> streamsInFlight.remove(flightKey, broadcast));
+        
+        // 持有的准入许可在流式回答结束时归还
+        AtomicReference<StreamAdmissionService.Route> admitted = new AtomicReference<>();
+        broadcast.onFinish(() -> releaseAdmission(admitted));
+        
+        // 编排线程已满时立即返回繁忙提示，不在请求线程上等待
+        if (!streamAdmissionService.tryStart()) {
+            try {
+                broadcast.send(StreamResponse.error(BUSY_MESSAGE));
+                broadcast.complete();
+            } catch (IOException e) {
+                broadcast.completeWithError(e);
+            }
+            return emitter;
+        }
+        
+        // 在虚拟线程中编排，避免阻塞请求线程
+        streamExecutor.execute(() -> {
             try {
                 log.info("开始流式智能路由处理: {}", question);
                 
                 // 简单问候语直接回复
                 if (isSimpleGreeting(question)) {
-                    emitter.send(StreamResponse.start("🤖 智能助手"));
-                    emitter.send(StreamResponse.chunk("您好！我是RAG智能问答助手，可以帮您解答问题。有什么我可以帮助您的吗？"));
-                    emitter.send(StreamResponse.end());
-                    emitter.complete();
+                    broadcast.send(StreamResponse.start("🤖 智能助手"));
+                    broadcast.send(StreamResponse.chunk("您好！我是RAG智能问答助手，可以帮您解答问题。有什么我可以帮助您的吗？"));
+                    broadcast.send(StreamResponse.end());
+                    broadcast.complete();
+                    return;
+                }
+                
+                // 缓存的回答按流式事件回放
+                SmartQueryResponse cachedResponse = answerCacheService.get(question, ANSWER_CACHE_ROUTE, corpusVersion);
+                if (cachedResponse != null) {
+                    replayCachedAnswer(cachedResponse, broadcast);
+                    return;
+                }
+                
+                // 检索和基于文档的回答占用图书馆路由的许可
+                if (!admit(StreamAdmissionService.Route.LIBRARY, admitted, broadcast)) {
                     return;
                 }
                 
+                AnswerContext context = newAnswerContext(question, corpusVersion);
+                
                 // 预先进行质量检查，避免多次发送START响应
-                boolean librarySuccess = tryLibraryResourcesStreamWithPreCheck(question, emitter);
+                boolean librarySuccess = tryLibraryResourcesStreamWithPreCheck(question, broadcast, context);
                 
                 if (!librarySuccess) {
+                    SmartQueryResponse cachedGeneral = semanticAnswerCache.get(context.questionVector, List.of(),
+                            context.corpusVersion);
+                    if (cachedGeneral != null) {
+                        replayCachedAnswer(cachedGeneral, broadcast);
+                        return;
+                    }
+                    
+                    // 转为通用AI回答，换用通用路由的许可
+                    releaseAdmission(admitted);
+                    if (!admit(StreamAdmissionService.Route.GENERAL, admitted, broadcast)) {
+                        return;
+                    }
+                    
                     log.info("图书馆资源无法提供相关信息，使用通用AI");
                     // 直接发送通用AI的START响应并处理
-                    emitter.send(StreamResponse.start("🤖 基于通用知识"));
-                    useGeneralAIStreamWithoutStart(question, emitter);
+                    broadcast.send(StreamResponse.start(GENERAL_STREAM_SOURCE));
+                    useGeneralAIStreamWithoutStart(question, broadcast, context);
                 }
                 
             } catch (Exception e) {
                 log.error("流式智能路由处理失败", e);
                 try {
-                    emitter.send(StreamResponse.error("抱歉，处理您的问题时发生了错误，请稍后重试。"));
-                    emitter.complete();
+                    broadcast.send(StreamResponse.error("抱歉，处理您的问题时发生了错误，请稍后重试。"));
+                    broadcast.complete();
                 } catch (IOException ioException) {
                     log.error("发送错误响应失败", ioException);
-                    emitter.completeWithError(ioException);
+                    broadcast.completeWithError(ioException);
                 }
+            } finally {
+                streamAdmissionService.finish();
             }
-        }).start();
+        });
         
         return emitter;
     }
     
+    /**
+     * 获取路由的准入许可，达到并发上限时发送繁忙提示并结束流；广播已结束（客户端已断开）时立即归还
+     */
+    private boolean admit(StreamAdmissionService.Route route, AtomicReference<StreamAdmissionService.Route> admitted,
+                          StreamBroadcast broadcast) throws IOException {
+        if (!streamAdmissionService.tryAcquire(route)) {
+            broadcast.send(StreamResponse.error(BUSY_MESSAGE));
+            broadcast.complete();
+            return false;
+        }
+        admitted.set(route);
+        // 结束回调可能已在设置许可前执行过，此时由这里归还
+        if (broadcast.isFinished()) {
+            releaseAdmission(admitted);
+            return false;
+        }
+        return true;
+    }
+    
+    private void releaseAdmission(AtomicReference<StreamAdmissionService.Route> admitted) {
+        StreamAdmissionService.Route route = admitted.getAndSet(null);
+        if (route != null) {
+            streamAdmissionService.release(route);
+        }
+    }
+    
+    /**
+     * 以流式事件回放缓存的回答，事件顺序与实时生成时一致
+     */
+    private void replayCachedAnswer(SmartQueryResponse cached, StreamBroadcast emitter) throws IOException {
+        boolean library = cached.getSourceType() == SmartQueryResponse.SourceType.LIBRARY;
+        emitter.send(StreamResponse.start(library ? LIBRARY_STREAM_SOURCE : GENERAL_STREAM_SOURCE));
+        emitter.send(StreamResponse.chunk(cached.getAnswer()));
+        if (library && cached.getSources() != null) {
+            emitter.send(StreamResponse.source(cached.getSources()));
+        }
+        if (cached.getNote() != null) {
+            emitter.send(StreamResponse.note(cached.getNote()));
+        }
+        emitter.send(StreamResponse.end());
+        emitter.complete();
+    }
+    
     /**
      * 分析问题类型
      */
@@ -278,23 +503,28 @@ public class SmartRoutingService {
     /**
      * 尝试图书馆资源（带性能监控）- 基于客观相似度判断
      */
-    private SmartQueryResponse tryLibraryResourcesFastWithMetrics(String question, PerformanceMetrics metrics) {
+    private SmartQueryResponse tryLibraryResourcesFastWithMetrics(String question, PerformanceMetrics metrics,
+                                                                  AnswerContext context) {
         try {
             // 开始向量搜索
             metrics.setVectorSearchStartTime(System.currentTimeMillis());
             log.info("🔍 开始向量搜索...");
             
-            // 第一步：使用高阈值搜索，寻找高度相关的文档
-            List<DocumentChunk> highRelevantChunks = vectorSearchService.vectorSearchWithThreshold(question, 3, HIGH_SIMILARITY_THRESHOLD);
+            // 按标准阈值检索一次，带回相似度后在本地分档
+            List<ScoredChunk> scoredChunks = vectorSearchService.scoredSearch(
+                    question, context.questionVector, 3, SIMILARITY_THRESHOLD);
+            
+            // 第一步：优先使用高度相关的文档
+            List<DocumentChunk> highRelevantChunks = chunksAtLeast(scoredChunks, HIGH_SIMILARITY_THRESHOLD);
             
             List<DocumentChunk> relevantChunks;
             if (!highRelevantChunks.isEmpty()) {
                 log.info("✅ 找到 {} 个高度相关的文档块（阈值: {}）", highRelevantChunks.size(), HIGH_SIMILARITY_THRESHOLD);
                 relevantChunks = highRelevantChunks;
             } else {
-                // 第二步：如果没有高度相关文档，尝试使用标准阈值
-                log.info("🔍 未找到高度相关文档，尝试标准阈值搜索...");
-                List<DocumentChunk> standardRelevantChunks = vectorSearchService.vectorSearchWithThreshold(question, 3, SIMILARITY_THRESHOLD);
+                // 第二步：如果没有高度相关文档，使用标准阈值的结果
+                log.info("🔍 未找到高度相关文档，使用标准阈值结果...");
+                List<DocumentChunk> standardRelevantChunks = chunksAtLeast(scoredChunks, SIMILARITY_THRESHOLD);
                 
                 if (!standardRelevantChunks.isEmpty()) {
                     log.info("✅ 找到 {} 个标准相关的文档块（阈值: {}）", standardRelevantChunks.size(), SIMILARITY_THRESHOLD);
@@ -311,6 +541,13 @@ public class SmartRoutingService {
             log.info("🔍 向量搜索完成，耗时: {}ms，找到 {} 个文档块", 
                 metrics.getVectorSearchDuration(), relevantChunks.size());
             
+            // 相近的问题检索到相同分块时复用其回答
+            SmartQueryResponse cachedResponse = semanticAnswerCache.get(context.questionVector, relevantChunks,
+                    context.corpusVersion);
+            if (cachedResponse != null) {
+                return cachedResponse;
+            }
+            
             // 开始上下文构建
             metrics.setContextBuildStartTime(System.currentTimeMillis());
             log.info("🔨 开始构建上下文...");
@@ -340,15 +577,27 @@ public class SmartRoutingService {
             log.info("🤖 AI处理完成，耗时: {}ms，生成答案长度: {} 字符", 
                 metrics.getAiProcessDuration(), ragAnswer != null ? ragAnswer.length() : 0);
             
+            // 生成失败时返回错误响应，不缓存
+            if (ragAnswer == null) {
+                return SmartQueryResponse.builder()
+                        .answer("抱歉，生成回答时发生了错误。")
+                        .source("系统错误")
+                        .sourceType(SmartQueryResponse.SourceType.ERROR)
+                        .relevant(false)
+                        .build();
+            }
+            
             log.info("✅ 基于客观相似度判断的文档查询成功");
             
-            return SmartQueryResponse.builder()
+            SmartQueryResponse response = SmartQueryResponse.builder()
                     .answer(ragAnswer)
                     .source("📚 基于图书馆资源")
                     .sourceType(SmartQueryResponse.SourceType.LIBRARY)
                     .sources(sources)
                     .relevant(true)
                     .build();
+            cacheSemanticAnswer(context, relevantChunks, response);
+            return response;
                     
         } catch (Exception e) {
             if (metrics.getVectorSearchStartTime() > 0 && metrics.getVectorSearchEndTime() == 0) {
@@ -405,7 +654,7 @@ public class SmartRoutingService {
                     .answer(answer)
                     .source("🧠 基于通用知识")
                     .sourceType(SmartQueryResponse.SourceType.GENERAL)
-                    .note("此回答基于AI的通用知识，建议查阅相关专业资料进行验证")
+                    .note(GENERAL_NOTE)
                     .relevant(true)
                     .build();
                     
@@ -419,7 +668,7 @@ public class SmartRoutingService {
             return SmartQueryResponse.builder()
                     .answer("抱歉，无法处理您的问题，请稍后重试。")
                     .source("🧠 基于通用知识")
-                    .sourceType(SmartQueryResponse.SourceType.GENERAL)
+                    .sourceType(SmartQueryResponse.SourceType.ERROR)
                     .relevant(false)
                     .build();
         }
@@ -428,7 +677,7 @@ public class SmartRoutingService {
     /**
      * 使用通用AI进行流式查询（不发送START响应）
      */
-    private void useGeneralAIStreamWithoutStart(String question, SseEmitter emitter) {
+    private void useGeneralAIStreamWithoutStart(String question, StreamBroadcast emitter, AnswerContext context) {
         try {
             log.info("使用通用AI进行流式查询（无START响应）: {}", question);
             
@@ -447,10 +696,13 @@ public class SmartRoutingService {
             
             // 使用原子布尔值跟踪emitter状态
             final AtomicBoolean emitterCompleted = new AtomicBoolean(false);
+            StringBuilder answer = new StringBuilder();
             
-            // 使用流式调用
-            chatClient.prompt(prompt).stream().content()
+            // 使用流式调用，客户端全部断开时取消生成
+            Disposable generation = chatClient.prompt(prompt).stream().content()
+                .timeout(Duration.ofMillis(streamIdleTimeoutMs))
                 .doOnNext(chunk -> {
+                    answer.append(chunk);
                     if (!emitterCompleted.get()) {
                         try {
                             // 直接发送原始内容，让前端处理思考过程分离
@@ -474,9 +726,18 @@ public class SmartRoutingService {
                     if (!emitterCompleted.compareAndSet(false, true)) {
                         return; // 已经完成，直接返回
                     }
+                    SmartQueryResponse response = SmartQueryResponse.builder()
+                            .answer(answer.toString())
+                            .source("🧠 基于通用知识")
+                            .sourceType(SmartQueryResponse.SourceType.GENERAL)
+                            .note(GENERAL_NOTE)
+                            .relevant(true)
+                            .build();
+                    cacheAnswer(question, context, response);
+                    cacheSemanticAnswer(context, List.of(), response);
                     try {
                         log.info("通用AI流式响应完成");
-                        emitter.send(StreamResponse.note("此回答基于AI的通用知识，建议查阅相关专业资料进行验证"));
+                        emitter.send(StreamResponse.note(GENERAL_NOTE));
                         emitter.send(StreamResponse.end());
                         emitter.complete();
                     } catch (IOException e) {
@@ -506,6 +767,7 @@ public class SmartRoutingService {
                     }
                 })
                 .subscribe();
+            emitter.onCancel(generation::dispose);
                 
         } catch (Exception e) {
             log.error("通用AI流式查询失败", e);
@@ -526,7 +788,7 @@ public class SmartRoutingService {
     /**
      * 使用通用AI进行流式查询（发送START响应）
      */
-    private void useGeneralAIStream(String question, SseEmitter emitter) {
+    private void useGeneralAIStream(String question, StreamBroadcast emitter) {
         try {
             log.info("使用通用AI进行流式查询: {}", question);
             
@@ -534,7 +796,8 @@ public class SmartRoutingService {
             emitter.send(StreamResponse.start("🤖 基于通用知识"));
             
             // 调用不发送START响应的版本
-            useGeneralAIStreamWithoutStart(question, emitter);
+            useGeneralAIStreamWithoutStart(question, emitter,
+                    newAnswerContext(question, answerCacheService.corpusVersion()));
                 
         } catch (Exception e) {
             log.error("通用AI流式查询失败", e);
@@ -552,22 +815,104 @@ public class SmartRoutingService {
         }
     }
     
+    /**
+     * 计算问题向量（经查询向量缓存），失败时返回 null，检索时再按文本向量化
+     */
+    private float[] embedQuestion(String question) {
+        try {
+            return queryEmbeddingService.embed(question);
+        } catch (Exception e) {
+            log.warn("问题向量化失败: {}", e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 在检索前创建问答上下文：先读取语义回答缓存的代数，再计算问题向量
+     */
+    private AnswerContext newAnswerContext(String question, long corpusVersion) {
+        long semanticGeneration = semanticAnswerCache.generation();
+        return new AnswerContext(corpusVersion, semanticGeneration, embedQuestion(question));
+    }
+    
+    /**
+     * 一次问答的问题向量，以及检索前读取的语料版本号和语义回答缓存代数，检索和缓存写入共用
+     */
+    private static class AnswerContext {
+        private final long corpusVersion;
+        private final long semanticGeneration;
+        private final float[] questionVector;
+        
+        private AnswerContext(long corpusVersion, long semanticGeneration, float[] questionVector) {
+            this.corpusVersion = corpusVersion;
+            this.semanticGeneration = semanticGeneration;
+            this.questionVector = questionVector;
+        }
+    }
+    
+    /**
+     * 按检索前的语料版本号缓存回答
+     */
+    private void cacheAnswer(String question, AnswerContext context, SmartQueryResponse response) {
+        answerCacheService.put(question, ANSWER_CACHE_ROUTE, toCacheable(response), context.corpusVersion);
+    }
+    
+    /**
+     * 按检索前的代数和语料版本号缓存回答及其依赖的分块
+     */
+    private void cacheSemanticAnswer(AnswerContext context, List<DocumentChunk> chunks, SmartQueryResponse response) {
+        semanticAnswerCache.put(context.questionVector, chunks, toCacheable(response), context.semanticGeneration,
+                context.corpusVersion);
+    }
+    
+    /**
+     * 缓存用的回答：去除思考过程和正式回答标题，流式和普通查询命中时得到相同的正文
+     */
+    private SmartQueryResponse toCacheable(SmartQueryResponse response) {
+        if (response == null || response.getAnswer() == null) {
+            return response;
+        }
+        String answer = FORMAL_ANSWER_HEADER.matcher(extractActualAnswer(response.getAnswer())).replaceFirst("");
+        return SmartQueryResponse.builder()
+                .answer(answer)
+                .source(response.getSource())
+                .sourceType(response.getSourceType())
+                .sources(response.getSources())
+                .note(response.getNote())
+                .relevant(response.isRelevant())
+                .build();
+    }
+    
+    /**
+     * 从一次检索的结果中取出相似度不低于阈值的分块
+     */
+    private List<DocumentChunk> chunksAtLeast(List<ScoredChunk> scoredChunks, double threshold) {
+        return scoredChunks.stream()
+                .filter(scored -> scored.similarity() >= threshold)
+                .map(ScoredChunk::chunk)
+                .collect(Collectors.toList());
+    }
+    
     /**
      * 带预检查的快速流式图书馆资源查询 - 基于客观相似度判断
      */
-    private boolean tryLibraryResourcesStreamWithPreCheck(String question, SseEmitter emitter) {
+    private boolean tryLibraryResourcesStreamWithPreCheck(String question, StreamBroadcast emitter, AnswerContext context) {
         try {
-            // 第一步：使用高阈值搜索，寻找高度相关的文档
-            List<DocumentChunk> highRelevantChunks = vectorSearchService.vectorSearchWithThreshold(question, 3, HIGH_SIMILARITY_THRESHOLD);
+            // 按标准阈值检索一次，带回相似度后在本地分档
+            List<ScoredChunk> scoredChunks = vectorSearchService.scoredSearch(
+                    question, context.questionVector, 3, SIMILARITY_THRESHOLD);
+            
+            // 第一步：优先使用高度相关的文档
+            List<DocumentChunk> highRelevantChunks = chunksAtLeast(scoredChunks, HIGH_SIMILARITY_THRESHOLD);
             
             List<DocumentChunk> relevantChunks;
             if (!highRelevantChunks.isEmpty()) {
                 log.info("✅ 流式查询找到 {} 个高度相关的文档块（阈值: {}）", highRelevantChunks.size(), HIGH_SIMILARITY_THRESHOLD);
                 relevantChunks = highRelevantChunks;
             } else {
-                // 第二步：如果没有高度相关文档，尝试使用标准阈值
-                log.info("🔍 流式查询未找到高度相关文档，尝试标准阈值搜索...");
-                List<DocumentChunk> standardRelevantChunks = vectorSearchService.vectorSearchWithThreshold(question, 3, SIMILARITY_THRESHOLD);
+                // 第二步：如果没有高度相关文档，使用标准阈值的结果
+                log.info("🔍 流式查询未找到高度相关文档，使用标准阈值结果...");
+                List<DocumentChunk> standardRelevantChunks = chunksAtLeast(scoredChunks, SIMILARITY_THRESHOLD);
                 
                 if (!standardRelevantChunks.isEmpty()) {
                     log.info("✅ 流式查询找到 {} 个标准相关的文档块（阈值: {}）", standardRelevantChunks.size(), SIMILARITY_THRESHOLD);
@@ -578,10 +923,19 @@ public class SmartRoutingService {
                 }
             }
             
+            // 相近的问题检索到相同分块时回放其回答
+            SmartQueryResponse cachedResponse = semanticAnswerCache.get(context.questionVector, relevantChunks,
+                    context.corpusVersion);
+            if (cachedResponse != null) {
+                cacheAnswer(question, context, cachedResponse);
+                replayCachedAnswer(cachedResponse, emitter);
+                return true;
+            }
+            
             log.info("✅ 基于客观相似度判断，文档内容相关，开始基于文档的流式输出");
             
             // 发送基于文档的START响应
-            emitter.send(StreamResponse.start("📚 基于图书馆资源"));
+            emitter.send(StreamResponse.start(LIBRARY_STREAM_SOURCE));
             
             // 提取文档来源
             List<String> sources = relevantChunks.stream()
@@ -603,8 +957,8 @@ public class SmartRoutingService {
             log.info("提取的文档来源: {}", sources);
             
             // 直接构建上下文并进行流式输出
-            String context = buildFastContext(relevantChunks);
-            generateFastStreamResponse(question, context, emitter, sources);
+            generateFastStreamResponse(question, buildFastContext(relevantChunks), emitter, sources,
+                    context, relevantChunks);
             
             return true;
                     
@@ -614,23 +968,6 @@ public class SmartRoutingService {
         }
     }
     
-    /**
-     * 缓存查询结果以确保一致性
-     * 为了测试开发方便，暂时禁用此方法
-     */
-    /*
-    private void cacheQueryResult(String cacheKey, boolean useDocument) {
-        // 简单的LRU策略：如果缓存太大，清理一半
-        if (queryConsistencyCache.size() >= MAX_CACHE_SIZE) {
-            log.info("查询缓存已满，清理旧条目");
-            queryConsistencyCache.clear(); // 简单清理策略
-        }
-        
-        queryConsistencyCache.put(cacheKey, useDocument);
-        log.debug("缓存查询结果: {} -> {}", cacheKey, useDocument ? "文档" : "通用AI");
-    }
-    */
-    
     /**
      * 快速构建上下文
      */
@@ -668,7 +1005,8 @@ public class SmartRoutingService {
     /**
      * 生成快速流式响应
      */
-    private void generateFastStreamResponse(String question, String context, SseEmitter emitter, List<String> sources) {
+    private void generateFastStreamResponse(String question, String context, StreamBroadcast emitter, List<String> sources,
+                                            AnswerContext answerContext, List<DocumentChunk> relevantChunks) {
         try {
             // 使用与RAG_PROMPT_TEMPLATE一致的提示模板，包含思考过程
             String fastPrompt = String.format(
@@ -702,10 +1040,13 @@ public class SmartRoutingService {
             );
             
             log.info("发送快速流式提示到AI模型");
+            StringBuilder answer = new StringBuilder();
             
-            // 使用流式调用
-            chatClient.prompt(fastPrompt).stream().content()
+            // 使用流式调用，客户端全部断开时取消生成
+            Disposable generation = chatClient.prompt(fastPrompt).stream().content()
+                .timeout(Duration.ofMillis(streamIdleTimeoutMs))
                 .doOnNext(chunk -> {
+                    answer.append(chunk);
                     try {
                         // 添加详细的chunk日志
                         log.info("🔍 接收到流式chunk: [{}]", chunk);
@@ -722,6 +1063,15 @@ public class SmartRoutingService {
                     }
                 })
                 .doOnComplete(() -> {
+                    SmartQueryResponse response = SmartQueryResponse.builder()
+                            .answer(answer.toString())
+                            .source(LIBRARY_STREAM_SOURCE)
+                            .sourceType(SmartQueryResponse.SourceType.LIBRARY)
+                            .sources(sources)
+                            .relevant(true)
+                            .build();
+                    cacheAnswer(question, answerContext, response);
+                    cacheSemanticAnswer(answerContext, relevantChunks, response);
                     try {
                         log.info("快速流式AI回答生成完成");
                         // 发送来源信息和结束事件
@@ -750,6 +1100,7 @@ public class SmartRoutingService {
                     }
                 })
                 .subscribe();
+            emitter.onCancel(generation::dispose);
                 
         } catch (Exception e) {
             log.error("生成快速流式AI回答失败", e);
@@ -0,0 +1,121 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式查询准入控制
+ *
+ * 基于文档和基于通用知识两条路由各有并发上限，许可从检索开始持有到流式回答结束；
+ * 达到上限的请求最多等待很短的时间，仍拿不到许可时拒绝，由调用方立即返回繁忙提示。
+ * 编排线程总数（含问候和缓存回放）另有上限，在请求线程上检查，不等待
+ */
+@Service
+@Slf4j
+public class StreamAdmissionService {
+
+    /**
+     * 流式查询路由
+     */
+    public enum Route {
+        LIBRARY,
+        GENERAL
+    }
+
+    private final Map<Route, Semaphore> permits = new EnumMap<>(Route.class);
+    private final Map<Route, AtomicInteger> active = new EnumMap<>(Route.class);
+    private final Map<Route, AtomicInteger> waiting = new EnumMap<>(Route.class);
+    private final Map<Route, Counter> rejections = new EnumMap<>(Route.class);
+    private final Semaphore orchestrations;
+    private final Counter orchestrationRejections;
+
+    @Value("${app.stream.acquire-timeout-ms:100}")
+    private long acquireTimeoutMs;
+
+    public StreamAdmissionService(MeterRegistry meterRegistry,
+                                  @Value("${app.stream.library-concurrency:16}") int libraryConcurrency,
+                                  @Value("${app.stream.general-concurrency:8}") int generalConcurrency,
+                                  @Value("${app.stream.max-concurrency:64}") int maxConcurrency) {
+        permits.put(Route.LIBRARY, new Semaphore(libraryConcurrency));
+        permits.put(Route.GENERAL, new Semaphore(generalConcurrency));
+        for (Route route : Route.values()) {
+            String tag = route.name().toLowerCase();
+            active.put(route, new AtomicInteger());
+            waiting.put(route, new AtomicInteger());
+            Gauge.builder("rag.stream.active", active.get(route), AtomicInteger::get)
+                    .description("正在进行的流式查询数")
+                    .tag("route", tag)
+                    .register(meterRegistry);
+            Gauge.builder("rag.stream.waiting", waiting.get(route), AtomicInteger::get)
+                    .description("等待准入许可的流式查询数")
+                    .tag("route", tag)
+                    .register(meterRegistry);
+            rejections.put(route, Counter.builder("rag.stream.rejected")
+                    .description("因并发上限被拒绝的流式查询数")
+                    .tag("route", tag)
+                    .register(meterRegistry));
+        }
+        orchestrations = new Semaphore(maxConcurrency);
+        orchestrationRejections = Counter.builder("rag.stream.rejected")
+                .description("因并发上限被拒绝的流式查询数")
+                .tag("route", "orchestration")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 占用一个编排线程名额，已满时立即返回 false，不阻塞请求线程
+     */
+    public boolean tryStart() {
+        if (orchestrations.tryAcquire()) {
+            return true;
+        }
+        orchestrationRejections.increment();
+        log.warn("流式编排线程已达上限，拒绝请求");
+        return false;
+    }
+
+    /**
+     * 归还编排线程名额
+     */
+    public void finish() {
+        orchestrations.release();
+    }
+
+    /**
+     * 获取路由的许可，在等待时间内拿不到时返回 false
+     */
+    public boolean tryAcquire(Route route) {
+        waiting.get(route).incrementAndGet();
+        try {
+            if (permits.get(route).tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                active.get(route).incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.get(route).decrementAndGet();
+        }
+        rejections.get(route).increment();
+        log.warn("流式查询已达并发上限，拒绝请求，路由: {}", route);
+        return false;
+    }
+
+    /**
+     * 归还路由的许可
+     */
+    public void release(Route route) {
+        active.get(route).decrementAndGet();
+        permits.get(route).release();
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一次流式回答的广播
+ *
+ * 相同问题的多个流式请求共用一次生成：生成过程只向广播发送事件，广播转发给所有订阅的SseEmitter，
+ * 并保留已发送的事件，后加入的订阅者先收到已生成的部分再继续接收。
+ * 方法签名与SseEmitter一致，生成代码无需区分单个客户端还是多个客户端。
+ * 每个订阅者由各自的投递任务按顺序发送，网络写入不持有锁，慢客户端不阻塞生成和其他订阅者；
+ * 所有订阅者都断开（超时、出错或写入失败）而广播尚未结束时取消广播，执行取消回调停止生成
+ */
+@Slf4j
+public class StreamBroadcast {
+
+    private static final Executor DEFAULT_DELIVERY_EXECUTOR =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("stream-delivery-", 0).factory());
+
+    private final Executor deliveryExecutor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<Object> events = new ArrayList<>();
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final List<Runnable> finishCallbacks = new ArrayList<>();
+    private final List<Runnable> cancelCallbacks = new ArrayList<>();
+    private boolean finished;
+    private boolean cancelled;
+    private Throwable failure;
+
+    public StreamBroadcast() {
+        this(DEFAULT_DELIVERY_EXECUTOR);
+    }
+
+    public StreamBroadcast(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * 一个订阅者及其投递进度，只在持有锁时读写
+     */
+    private static final class Subscriber {
+        private final SseEmitter emitter;
+        private int delivered;
+        private boolean delivering;
+        private boolean removed;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+
+    /**
+     * 加入订阅，先回放已发送的事件；广播已结束时回放后立即结束
+     */
+    public void subscribe(SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onTimeout(() -> {
+            unsubscribe(subscriber);
+            emitter.complete();
+        });
+        emitter.onError(error -> unsubscribe(subscriber));
+        emitter.onCompletion(() -> unsubscribe(subscriber));
+
+        lock.lock();
+        try {
+            subscribers.add(subscriber);
+        } finally {
+            lock.unlock();
+        }
+        schedule(List.of(subscriber));
+    }
+
+    /**
+     * 广播结束（正常、出错或取消）时回调
+     */
+    public void onFinish(Runnable callback) {
+        lock.lock();
+        try {
+            if (!finished) {
+                finishCallbacks.add(callback);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    /**
+     * 广播因所有订阅者断开而取消时回调，用于停止生成
+     */
+    public void onCancel(Runnable callback) {
+        lock.lock();
+        try {
+            if (!cancelled) {
+                if (!finished) {
+                    cancelCallbacks.add(callback);
+                }
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        callback.run();
+    }
+
+    /**
+     * 发送事件给所有订阅者；只登记事件并唤醒各订阅者的投递任务，不等待网络写入
+     */
+    public void send(Object event) throws IOException {
+        List<Subscriber> targets;
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            events.add(event);
+            targets = List.copyOf(subscribers);
+        } finally {
+            lock.unlock();
+        }
+        schedule(targets);
+    }
+
+    public void complete() {
+        finish(null);
+    }
+
+    public void completeWithError(Throwable error) {
+        finish(error);
+    }
+
+    /**
+     * 广播是否已结束
+     */
+    public boolean isFinished() {
+        lock.lock();
+        try {
+            return finished;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 广播是否因所有订阅者断开而取消；已取消的广播不再接受新的订阅者
+     */
+    public boolean isCancelled() {
+        lock.lock();
+        try {
+            return cancelled;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 当前订阅者数量
+     */
+    public int subscriberCount() {
+        lock.lock();
+        try {
+            return subscribers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void finish(Throwable error) {
+        List<Runnable> callbacks;
+        List<Subscriber> targets;
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            failure = error;
+            callbacks = new ArrayList<>(finishCallbacks);
+            finishCallbacks.clear();
+            cancelCallbacks.clear();
+            targets = List.copyOf(subscribers);
+        } finally {
+            lock.unlock();
+        }
+        // 各订阅者的投递任务发送完剩余事件后结束其连接
+        schedule(targets);
+        callbacks.forEach(Runnable::run);
+    }
+
+    /**
+     * 订阅者离开；最后一个订阅者离开而广播尚未结束时取消广播
+     */
+    private void unsubscribe(Subscriber subscriber) {
+        List<Runnable> callbacks;
+        lock.lock();
+        try {
+            if (subscriber.removed) {
+                return;
+            }
+            subscriber.removed = true;
+            subscribers.remove(subscriber);
+            if (finished || !subscribers.isEmpty()) {
+                return;
+            }
+            finished = true;
+            cancelled = true;
+            callbacks = new ArrayList<>(cancelCallbacks);
+            callbacks.addAll(finishCallbacks);
+            cancelCallbacks.clear();
+            finishCallbacks.clear();
+        } finally {
+            lock.unlock();
+        }
+        log.info("流式回答的所有订阅者已断开，取消生成");
+        for (Runnable callback : callbacks) {
+            try {
+                callback.run();
+            } catch (Exception e) {
+                log.warn("执行流式广播取消回调失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 为尚未在投递的订阅者启动投递任务
+     */
+    private void schedule(List<Subscriber> targets) {
+        for (Subscriber subscriber : targets) {
+            lock.lock();
+            try {
+                if (subscriber.delivering || subscriber.removed) {
+                    continue;
+                }
+                subscriber.delivering = true;
+            } finally {
+                lock.unlock();
+            }
+            deliveryExecutor.execute(() -> deliver(subscriber));
+        }
+    }
+
+    /**
+     * 按顺序发送订阅者尚未收到的事件，广播已结束且事件发送完毕时结束其连接
+     */
+    private void deliver(Subscriber subscriber) {
+        while (true) {
+            Object event;
+            boolean done;
+            Throwable error;
+            lock.lock();
+            try {
+                if (subscriber.removed) {
+                    subscriber.delivering = false;
+                    return;
+                }
+                if (subscriber.delivered < events.size()) {
+                    event = events.get(subscriber.delivered++);
+                    done = false;
+                    error = null;
+                } else if (finished) {
+                    event = null;
+                    done = true;
+                    error = failure;
+                    subscriber.removed = true;
+                    subscribers.remove(subscriber);
+                } else {
+                    subscriber.delivering = false;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if (done) {
+                if (error != null) {
+                    subscriber.emitter.completeWithError(error);
+                } else {
+                    subscriber.emitter.complete();
+                }
+                return;
+            }
+            try {
+                subscriber.emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                log.debug("流式订阅者已断开: {}", e.getMessage());
+                lock.lock();
+                try {
+                    subscriber.delivering = false;
+                } finally {
+                    lock.unlock();
+                }
+                unsubscribe(subscriber);
+                return;
+            }
+        }
+    }
+}
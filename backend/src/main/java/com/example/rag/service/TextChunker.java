@@ -0,0 +1,182 @@
+package com.example.rag.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * 流式文本分块器
+ *
+ * 从 Reader 读取文本到固定大小的滑动窗口中分块，每个分块产生后立即交给下游，
+ * 内存占用只与窗口大小有关，与文档长度无关
+ */
+@Slf4j
+public class TextChunker {
+
+    /**
+     * 分块结果回调，位置为分块在原文中的起止偏移
+     */
+    @FunctionalInterface
+    public interface ChunkSink {
+        void accept(String content, int startPosition, int endPosition);
+    }
+
+    private static final int MIN_WINDOW_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+    private final int overlap;
+    private final int windowSize;
+
+    public TextChunker(int chunkSize, int overlap) {
+        if (chunkSize <= 0 || overlap < 0 || overlap >= chunkSize) {
+            throw new IllegalArgumentException("无效的分块参数: chunkSize=" + chunkSize + ", overlap=" + overlap);
+        }
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+        this.windowSize = Math.max(MIN_WINDOW_SIZE, chunkSize * 4);
+    }
+
+    /**
+     * 分块
+     *
+     * 每个分块的结尾只在 [start + chunkSize / 2, start + chunkSize] 窗口内查找分隔符，
+     * 找不到时在窗口末尾切开；相邻分块按 overlap 重叠，空白分块不输出
+     *
+     * @return 生成的分块数量
+     */
+    public int split(Reader reader, ChunkSink sink) throws IOException {
+        char[] window = new char[windowSize];
+        CharBuffer view = CharBuffer.wrap(window);
+        int windowStart = 0;  // window[0] 在原文中的偏移
+        int windowLength = 0;
+        boolean endOfText = false;
+
+        int start = 0;
+        int chunkCount = 0;
+        int minStep = Math.max(50, chunkSize / 20); // 最小步长
+
+        log.debug("开始流式分块，块大小: {}, 重叠: {}", chunkSize, overlap);
+
+        while (true) {
+            // 保证窗口中至少有一个完整分块外加一个字符，用于判断是否到达文本末尾
+            if (!endOfText && windowStart + windowLength < start + chunkSize + 1) {
+                int discard = start - windowStart;
+                System.arraycopy(window, discard, window, 0, windowLength - discard);
+                windowStart = start;
+                windowLength -= discard;
+
+                while (windowLength < windowSize) {
+                    int read = reader.read(window, windowLength, windowSize - windowLength);
+                    if (read < 0) {
+                        endOfText = true;
+                        break;
+                    }
+                    windowLength += read;
+                }
+            }
+
+            int textEnd = windowStart + windowLength;
+            if (start >= textEnd) {
+                break;
+            }
+
+            int end = Math.min(start + chunkSize, textEnd);
+
+            // 尝试在合适的位置分割，避免截断单词或句子
+            if (end < textEnd) {
+                int bestEnd = findBestSplitPoint(view, start + chunkSize / 2 - windowStart, end - windowStart)
+                        + windowStart;
+                if (bestEnd > start) {
+                    end = bestEnd;
+                }
+            }
+
+            // 按下标去掉首尾空白后再复制，与 String.trim() 的规则一致
+            int chunkStart = start - windowStart;
+            int chunkEnd = end - windowStart;
+            while (chunkStart < chunkEnd && window[chunkStart] <= ' ') {
+                chunkStart++;
+            }
+            while (chunkEnd > chunkStart && window[chunkEnd - 1] <= ' ') {
+                chunkEnd--;
+            }
+            if (chunkStart < chunkEnd) {
+                sink.accept(new String(window, chunkStart, chunkEnd - chunkStart),
+                        windowStart + chunkStart, windowStart + chunkEnd);
+                chunkCount++;
+                log.debug("创建块 {}: 起始={}, 结束={}, 长度={}", chunkCount, start, end, chunkEnd - chunkStart);
+            }
+
+            if (endOfText && end >= textEnd) {
+                break;
+            }
+
+            // 确保步长至少前进一定距离，避免无限循环；不越过本块结尾，保证窗口中的文本连续
+            int nextStart = end - overlap;
+            if (nextStart <= start) {
+                nextStart = Math.min(start + minStep, end);
+                log.debug("步长过小，强制最小步长: {} -> {}", start, nextStart);
+            }
+            start = nextStart;
+        }
+
+        log.info("分块完成，文本长度 {} 字符，生成 {} 个块", windowStart + windowLength, chunkCount);
+        return chunkCount;
+    }
+
+    /**
+     * 查找最佳分割点
+     *
+     * 只在 [minEnd, maxEnd] 窗口内从后向前扫描一次，同时记录各类分隔符最后出现的位置，
+     * 分隔符缺失时不会扫描到文本开头
+     */
+    static int findBestSplitPoint(CharSequence text, int minEnd, int maxEnd) {
+        int lastExclamation = -1;
+        int lastQuestion = -1;
+        int lastNewline = -1;
+        int lastSpace = -1;
+
+        for (int i = Math.min(maxEnd, text.length() - 1); i >= minEnd; i--) {
+            char c = text.charAt(i);
+            if (c == '。') {
+                // 句号优先级最高，找到即可返回
+                return i + 1;
+            } else if (c == '！') {
+                if (lastExclamation < 0) {
+                    lastExclamation = i;
+                }
+            } else if (c == '？') {
+                if (lastQuestion < 0) {
+                    lastQuestion = i;
+                }
+            } else if (c == '\n') {
+                if (lastNewline < 0) {
+                    lastNewline = i;
+                }
+            } else if (c == ' ') {
+                if (lastSpace < 0) {
+                    lastSpace = i;
+                }
+            }
+        }
+
+        // 优先级：句号 > 感叹号 > 问号 > 换行符 > 空格
+        if (lastExclamation >= 0) {
+            return lastExclamation + 1;
+        }
+        if (lastQuestion >= 0) {
+            return lastQuestion + 1;
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (lastSpace >= 0) {
+            return lastSpace + 1;
+        }
+
+        // 如果找不到合适的分割点，就在最大位置分割
+        return maxEnd;
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.rag.service;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.DenseVectorIndexOptions;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.SourceField;
+import co.elastic.clients.elasticsearch._types.mapping.TypeMapping;
+import co.elastic.clients.elasticsearch.core.ReindexResponse;
+import co.elastic.clients.elasticsearch.indices.GetIndexResponse;
+import co.elastic.clients.elasticsearch.indices.IndexState;
+import co.elastic.clients.elasticsearch.tasks.GetTasksResponse;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.repository.DocumentChunkRepository;
+import jakarta.json.JsonArray;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHitsIterator;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 向量索引管理服务
+ *
+ * 向量索引（单索引模式下为 document_chunks，否则为 rag_vectors）由应用按配置的 index_options 创建，
+ * 不再依赖 Spring Data / Spring AI 的自动建索引。索引名是指向带版本物理索引的别名，
+ * 切换量化类型时把现有向量 reindex 到新索引后原子切换别名，无需重新向量化。
+ * document_chunks 默认不在 _source 中保存向量，这种索引迁移时向量从源索引的doc values回填
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class VectorIndexService implements SmartInitializingSingleton {
+
+    /**
+     * 支持的 dense_vector index_options 类型，bbq_hnsw 需要 Elasticsearch 8.16+
+     */
+    private static final Set<String> INDEX_TYPES = Set.of(
+            "hnsw", "int8_hnsw", "int4_hnsw", "bbq_hnsw", "flat", "int8_flat", "int4_flat", "bbq_flat");
+
+    private static final DateTimeFormatter VERSION_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+
+    private final ElasticsearchClient elasticsearchClient;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final VectorSearchService vectorSearchService;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final VectorIndexWriteGate vectorIndexWriteGate;
+
+    private final AtomicBoolean migrating = new AtomicBoolean(false);
+    private final AtomicReference<String> lastMigration = new AtomicReference<>();
+
+    @Value("${spring.ai.vectorstore.elasticsearch.index-name:rag_vectors}")
+    private String vectorStoreIndexName;
+
+    @Value("${spring.ai.vectorstore.elasticsearch.dimensions:768}")
+    private int dimensions;
+
+    @Value("${app.vector-store.index-type:int8_hnsw}")
+    private String indexType;
+
+    @Value("${app.vector-store.hnsw-m:16}")
+    private int hnswM;
+
+    @Value("${app.vector-store.hnsw-ef-construction:100}")
+    private int hnswEfConstruction;
+
+    @Value("${app.vector-store.exclude-vectors-from-source:true}")
+    private boolean excludeVectorsFromSource;
+
+    @Value("${app.vector-store.migration-poll-ms:5000}")
+    private long migrationPollMs;
+
+    @Value("${app.vector-store.backfill-batch-size:256}")
+    private int backfillBatchSize;
+
+    /**
+     * 向量索引的布局：index_options 类型，以及 _source 中是否保存向量
+     */
+    private record IndexLayout(String type, boolean vectorsInSource) {
+    }
+
+    /**
+     * 所有单例创建完成后立即创建缺失的向量索引
+     *
+     * 早于定时任务注册（上下文刷新完成时）和Web服务启动，入库调度和上传请求写入时索引已按配置的映射存在，
+     * 不会被自动创建为动态映射
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        try {
+            ensureIndex();
+        } catch (IOException e) {
+            throw new IllegalStateException("创建向量索引失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void ensureIndex() throws IOException {
+        if (!INDEX_TYPES.contains(indexType)) {
+            throw new IllegalStateException("不支持的向量索引类型: " + indexType + ", 可选 " + INDEX_TYPES);
+        }
+
+        String alias = aliasName();
+        if (!elasticsearchClient.indices().exists(e -> e.index(alias)).value()) {
+            String physical = createPhysicalIndex(alias);
+            elasticsearchClient.indices().updateAliases(u -> u
+                    .actions(a -> a.add(add -> add.index(physical).alias(alias))));
+            log.info("已创建向量索引: {} -> {}, 类型 {}", alias, physical, indexType);
+            return;
+        }
+
+        IndexLayout current = currentLayout(alias);
+        if (!configuredLayout().equals(current)) {
+            log.warn("向量索引 {} 的布局为 {}，配置为 {}；执行 POST /api/documents/vector-index/migrate 迁移",
+                    alias, current, configuredLayout());
+        }
+    }
+
+    /**
+     * 向量索引状态
+     */
+    public Map<String, Object> getStatus() throws IOException {
+        String alias = aliasName();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("alias", alias);
+        status.put("configuredType", indexType);
+        status.put("configuredVectorsInSource", configuredLayout().vectorsInSource());
+        status.put("migrating", migrating.get());
+        status.put("lastMigration", lastMigration.get());
+        if (elasticsearchClient.indices().exists(e -> e.index(alias)).value()) {
+            status.put("physicalIndex", physicalIndex(alias));
+            IndexLayout current = currentLayout(alias);
+            status.put("currentType", current.type());
+            status.put("currentVectorsInSource", current.vectorsInSource());
+        }
+        return status;
+    }
+
+    /**
+     * 在后台把现有向量迁移到按当前配置创建的新索引
+     *
+     * @return 已开始迁移返回 true，已有迁移在进行或无需迁移时返回 false
+     */
+    public boolean startMigration() throws IOException {
+        String alias = aliasName();
+        if (configuredLayout().equals(currentLayout(alias))) {
+            return false;
+        }
+        if (!migrating.compareAndSet(false, true)) {
+            return false;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                migrate(alias);
+                lastMigration.set("成功: " + LocalDateTime.now());
+            } catch (Exception e) {
+                log.error("向量索引迁移失败: {}", alias, e);
+                lastMigration.set("失败: " + e.getMessage());
+            } finally {
+                migrating.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 迁移步骤：创建新索引 → 源索引禁止写入 → reindex（源索引不含向量时再回填向量）→ 原子切换别名并删除源索引
+     *
+     * 迁移期间检索照常进行；写入阻塞到切换完成后写入新索引，删除登记后在切换完成时执行
+     */
+    private void migrate(String alias) throws Exception {
+        vectorIndexWriteGate.begin(alias);
+        try {
+            migrateBlocked(alias);
+        } finally {
+            vectorIndexWriteGate.end();
+        }
+    }
+
+    private void migrateBlocked(String alias) throws Exception {
+        String source = physicalIndex(alias);
+        boolean vectorsInSource = currentLayout(alias).vectorsInSource();
+        String target = createPhysicalIndex(alias);
+        log.info("开始迁移向量索引: {} -> {}, 类型 {}", source, target, indexType);
+
+        setWriteBlock(source, true);
+        try {
+            ReindexResponse started = elasticsearchClient.reindex(r -> r
+                    .source(s -> s.index(source))
+                    .dest(d -> d.index(target))
+                    .waitForCompletion(false));
+            awaitTask(started.task());
+            elasticsearchClient.indices().refresh(r -> r.index(target));
+            if (!vectorsInSource) {
+                backfillVectors(source, target);
+            }
+        } catch (Exception e) {
+            setWriteBlock(source, false);
+            elasticsearchClient.indices().delete(d -> d.index(target));
+            throw e;
+        }
+
+        if (source.equals(alias)) {
+            // 旧版本直接以别名为名创建的物理索引，删除索引和添加别名在同一请求中完成
+            elasticsearchClient.indices().updateAliases(u -> u
+                    .actions(a -> a.removeIndex(ri -> ri.index(source)))
+                    .actions(a -> a.add(add -> add.index(target).alias(alias))));
+        } else {
+            elasticsearchClient.indices().updateAliases(u -> u
+                    .actions(a -> a.remove(rm -> rm.index(source).alias(alias)))
+                    .actions(a -> a.add(add -> add.index(target).alias(alias))));
+            elasticsearchClient.indices().delete(d -> d.index(source));
+        }
+        log.info("向量索引迁移完成: {} -> {}", alias, target);
+    }
+
+    private void awaitTask(String taskId) throws IOException, InterruptedException {
+        while (true) {
+            GetTasksResponse task = elasticsearchClient.tasks().get(t -> t.taskId(taskId));
+            if (task.completed()) {
+                if (task.error() != null) {
+                    throw new IllegalStateException("reindex失败: " + task.error().reason());
+                }
+                JsonArray failures = task.response() != null
+                        ? task.response().toJson().asJsonObject().getJsonArray("failures") : null;
+                if (failures != null && !failures.isEmpty()) {
+                    throw new IllegalStateException("reindex有 " + failures.size() + " 条失败, 例如 " + failures.get(0));
+                }
+                log.info("reindex完成: {}", taskId);
+                return;
+            }
+            log.debug("reindex进行中: {}", taskId);
+            Thread.sleep(migrationPollMs);
+        }
+    }
+
+    /**
+     * 为新索引中的分块回填向量：从源索引的doc values读取原始向量，源索引中没有向量的分块才重新向量化
+     */
+    private void backfillVectors(String source, String target) throws IOException {
+        NativeQuery query = NativeQuery.builder()
+                .withQuery(q -> q.matchAll(m -> m))
+                .withSourceFilter(new FetchSourceFilter(null, new String[]{"embedding"}))
+                .withPageable(PageRequest.of(0, backfillBatchSize))
+                .build();
+
+        long backfilled = 0;
+        try (SearchHitsIterator<DocumentChunk> hits = elasticsearchOperations.searchForStream(
+                query, DocumentChunk.class, IndexCoordinates.of(target))) {
+            List<DocumentChunk> batch = new ArrayList<>(backfillBatchSize);
+            while (hits.hasNext()) {
+                batch.add(hits.next().getContent());
+                if (batch.size() >= backfillBatchSize || !hits.hasNext()) {
+                    vectorSearchService.attachEmbeddings(batch, vectorSearchService.loadEmbeddings(batch, source));
+                    documentChunkRepository.bulkIndex(batch, target);
+                    backfilled += batch.size();
+                    log.info("已回填向量: {} 个分块", backfilled);
+                    batch = new ArrayList<>(backfillBatchSize);
+                }
+            }
+        }
+        elasticsearchOperations.indexOps(IndexCoordinates.of(target)).refresh();
+    }
+
+    private void setWriteBlock(String index, boolean blocked) throws IOException {
+        elasticsearchClient.indices().putSettings(p -> p
+                .index(index)
+                .settings(s -> s.blocks(b -> b.write(blocked))));
+    }
+
+    /**
+     * 按当前配置创建带版本后缀的物理索引
+     */
+    private String createPhysicalIndex(String alias) throws IOException {
+        String physical = alias + "_" + indexType + "_" + LocalDateTime.now().format(VERSION_FORMAT);
+        String mappingJson = buildMapping().toJson();
+        elasticsearchClient.indices().create(c -> c
+                .index(physical)
+                .mappings(TypeMapping.of(m -> m.withJson(new StringReader(mappingJson)))));
+        return physical;
+    }
+
+    /**
+     * 单索引模式沿用 DocumentChunk 的字段映射，只替换向量字段的 index_options
+     */
+    private Document buildMapping() {
+        Document mapping = vectorSearchService.isSingleIndex()
+                ? elasticsearchOperations.indexOps(DocumentChunk.class).createMapping()
+                : Document.create();
+        if (!configuredLayout().vectorsInSource()) {
+            mapping.put("_source", Map.of("excludes", List.of("embedding")));
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> properties = (Map<String, Object>) mapping.computeIfAbsent("properties", key -> new HashMap<>());
+
+        Map<String, Object> indexOptions = new LinkedHashMap<>();
+        indexOptions.put("type", indexType);
+        if (indexType.endsWith("hnsw")) {
+            indexOptions.put("m", hnswM);
+            indexOptions.put("ef_construction", hnswEfConstruction);
+        }
+
+        Map<String, Object> embedding = new LinkedHashMap<>();
+        embedding.put("type", "dense_vector");
+        embedding.put("dims", dimensions);
+        embedding.put("similarity", "cosine");
+        embedding.put("index", true);
+        embedding.put("index_options", indexOptions);
+        properties.put("embedding", embedding);
+        return mapping;
+    }
+
+    private String physicalIndex(String alias) throws IOException {
+        GetIndexResponse response = elasticsearchClient.indices().get(g -> g.index(alias));
+        return response.result().keySet().iterator().next();
+    }
+
+    private IndexLayout currentLayout(String alias) throws IOException {
+        GetIndexResponse response = elasticsearchClient.indices().get(g -> g.index(alias));
+        for (IndexState state : response.result().values()) {
+            TypeMapping mappings = state.mappings();
+            if (mappings == null) {
+                continue;
+            }
+            SourceField sourceField = mappings.source();
+            boolean vectorsInSource = sourceField == null || !sourceField.excludes().contains("embedding");
+            Property embedding = mappings.properties().get("embedding");
+            if (embedding != null && embedding.isDenseVector()) {
+                DenseVectorIndexOptions options = embedding.denseVector().indexOptions();
+                return new IndexLayout(options != null ? options.type() : null, vectorsInSource);
+            }
+        }
+        return new IndexLayout(null, true);
+    }
+
+    /**
+     * 按配置应有的布局，rag_vectors 的文档由Spring AI读取，始终在 _source 中保存向量
+     */
+    private IndexLayout configuredLayout() {
+        return new IndexLayout(indexType, !(excludeVectorsFromSource && vectorSearchService.isSingleIndex()));
+    }
+
+    private String aliasName() {
+        return vectorSearchService.isSingleIndex()
+                ? elasticsearchOperations.getIndexCoordinatesFor(DocumentChunk.class).getIndexName()
+                : vectorStoreIndexName;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.rag.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 向量索引迁移期间的写入闸门
+ *
+ * 迁移时源索引禁止写入：写入分块和向量的调用阻塞到迁移结束后再写入切换后的索引；
+ * 删除不阻塞调用方，登记后在迁移结束时按顺序执行，并通知缓存失效。
+ * 只拦截通过别名写入正在迁移的索引，迁移本身写入新物理索引不受影响
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class VectorIndexWriteGate {
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    /**
+     * 迁移结束后执行的删除
+     */
+    private record DeferredDelete(String documentId, Runnable operation) {
+    }
+
+    private final Deque<DeferredDelete> deferredDeletes = new ArrayDeque<>();
+    private String migratingIndex;
+
+    /**
+     * 开始迁移别名指向的索引
+     */
+    public synchronized void begin(String indexName) {
+        migratingIndex = indexName;
+        log.info("向量索引迁移开始，写入暂缓: {}", indexName);
+    }
+
+    /**
+     * 迁移结束（成功或失败）：执行登记的删除，然后放行等待中的写入
+     */
+    public void end() {
+        Set<String> documentIds = new LinkedHashSet<>();
+        while (true) {
+            DeferredDelete delete;
+            synchronized (this) {
+                delete = deferredDeletes.poll();
+                if (delete == null) {
+                    migratingIndex = null;
+                    notifyAll();
+                    break;
+                }
+            }
+            try {
+                delete.operation().run();
+                documentIds.add(delete.documentId());
+            } catch (Exception e) {
+                log.error("执行迁移期间登记的删除失败: {}", delete.documentId(), e);
+            }
+        }
+        documentIds.forEach(documentId -> eventPublisher.publishEvent(new DocumentIndexChangedEvent(documentId)));
+        log.info("向量索引迁移结束，已执行 {} 个文档的暂缓删除", documentIds.size());
+    }
+
+    /**
+     * 写入前调用：索引正在迁移时阻塞到迁移结束
+     */
+    public synchronized void awaitWritable(String indexName) {
+        if (!indexName.equals(migratingIndex)) {
+            return;
+        }
+        log.info("向量索引正在迁移，写入等待迁移结束: {}", indexName);
+        try {
+            while (indexName.equals(migratingIndex)) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待向量索引迁移被中断", e);
+        }
+    }
+
+    /**
+     * 删除前调用：索引正在迁移时登记删除并返回 true，由迁移结束时执行；否则返回 false，调用方直接删除
+     */
+    public synchronized boolean deferIfMigrating(String indexName, String documentId, Runnable operation) {
+        if (!indexName.equals(migratingIndex)) {
+            return false;
+        }
+        deferredDeletes.add(new DeferredDelete(documentId, operation));
+        log.info("向量索引正在迁移，删除已登记到迁移结束后执行: {}", documentId);
+        return true;
+    }
+}
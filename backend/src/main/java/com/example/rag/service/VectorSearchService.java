@@ -1,26 +1,100 @@
 package com.example.rag.service;
 
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.json.JsonData;
 import com.example.rag.model.DocumentChunk;
+import com.example.rag.repository.DocumentChunkRepository;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonValue;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.elasticsearch.client.elc.NativeQuery;
+import org.springframework.data.elasticsearch.client.elc.NativeQueryBuilder;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.SearchHit;
+import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.query.FetchSourceFilter;
+import org.springframework.data.elasticsearch.core.query.RescorerQuery;
+import org.springframework.data.elasticsearch.core.query.SourceFilter;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 /**
  * 向量搜索服务
+ *
+ * 单索引模式下分块向量直接写入 document_chunks 的 embedding 字段，kNN检索和删除都只针对这一个索引；
+ * 关闭后沿用 Spring AI 的 rag_vectors 索引单独存放向量
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class VectorSearchService {
     
+    /**
+     * Elasticsearch num_candidates 的上限
+     */
+    private static final int MAX_NUM_CANDIDATES = 10000;
+    
+    /**
+     * 按原始float向量计算的精确余弦得分，与kNN得分同为 (1 + cos) / 2
+     */
+    private static final String EXACT_COSINE_SCRIPT =
+            "(cosineSimilarity(params.query_vector, 'embedding') + 1.0) / 2.0";
+    
+    /**
+     * 从doc values读取已写入的原始float向量；_source 不保存向量时也能读取
+     */
+    private static final String STORED_VECTOR_SCRIPT =
+            "doc['embedding'].size() == 0 ? null : doc['embedding'].vectorValue";
+    
+    /**
+     * 按ID读取已写入向量时每次请求的分块数
+     */
+    private static final int STORED_VECTOR_BATCH_SIZE = 500;
+    
+    /**
+     * 检索结果只取回生成回答需要的字段，metadata 中是页码等引用信息
+     */
+    private static final SourceFilter SEARCH_SOURCE_FILTER = new FetchSourceFilter(
+            new String[]{"id", "documentId", "chunkIndex", "category", "content", "metadata"}, null);
+    
     private final VectorStore vectorStore;
+    private final ChunkEmbeddingService chunkEmbeddingService;
+    private final ElasticsearchClient elasticsearchClient;
+    private final ElasticsearchOperations elasticsearchOperations;
+    private final QueryEmbeddingService queryEmbeddingService;
+    private final SemanticRetrievalCache semanticRetrievalCache;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final VectorIndexWriteGate vectorIndexWriteGate;
+    
+    @Value("${spring.ai.vectorstore.elasticsearch.index-name:rag_vectors}")
+    private String vectorIndexName;
+    
+    @Value("${app.vector-store.single-index:false}")
+    private boolean singleIndex;
+    
+    @Value("${app.vector-store.oversample:1.0}")
+    private double oversample;
+    
+    @Value("${app.embedding.batch-size:16}")
+    private int embeddingBatchSize;
     
     /**
      * 向量化搜索文档
@@ -35,18 +109,14 @@ public class VectorSearchService {
                 log.warn("topK值 {} 超过限制，调整为 {}", topK, limitedTopK);
             }
             
-            // 使用Spring AI VectorStore进行相似性搜索
-            SearchRequest searchRequest = SearchRequest.builder()
-                    .query(query)
-                    .topK(limitedTopK)
-                    .build();
-            List<Document> documents = vectorStore.similaritySearch(searchRequest);
+            // 查询向量只计算一次，扩展搜索时复用
+            float[] queryVector = queryEmbeddingService.embed(query);
+            List<DocumentChunk> documents = chunksOf(similaritySearch(queryVector, limitedTopK, 0.0, oversample));
             
             log.info("向量搜索返回 {} 个结果", documents.size());
             
-            // 转换为DocumentChunk并过滤无用内容
+            // 过滤无用内容
             List<DocumentChunk> chunks = documents.stream()
-                    .map(this::convertToDocumentChunk)
                     .filter(this::isUsefulContent)  // 添加内容过滤
                     .collect(Collectors.toList());
             
@@ -55,14 +125,10 @@ public class VectorSearchService {
             // 如果过滤后结果太少，尝试获取更多结果
             if (chunks.size() < topK && documents.size() == limitedTopK) {
                 log.info("过滤后结果不足，尝试获取更多文档块");
-                SearchRequest expandedRequest = SearchRequest.builder()
-                        .query(query)
-                        .topK(Math.min(limitedTopK * 2, 1000))
-                        .build();
-                List<Document> expandedDocuments = vectorStore.similaritySearch(expandedRequest);
+                List<DocumentChunk> expandedDocuments = chunksOf(
+                        similaritySearch(queryVector, Math.min(limitedTopK * 2, 1000), 0.0, oversample));
                 
                 chunks = expandedDocuments.stream()
-                        .map(this::convertToDocumentChunk)
                         .filter(this::isUsefulContent)
                         .limit(topK)  // 限制最终结果数量
                         .collect(Collectors.toList());
@@ -82,8 +148,52 @@ public class VectorSearchService {
      * 向量化搜索文档（带相似度阈值）
      */
     public List<DocumentChunk> vectorSearchWithThreshold(String query, int topK, double similarityThreshold) {
+        return vectorSearchWithThreshold(query, topK, similarityThreshold, oversample);
+    }
+    
+    /**
+     * 向量化搜索文档（带相似度阈值），指定本次查询的过采样倍数
+     *
+     * @param oversample 量化索引先取 topK * oversample 个候选，再按原始向量重新打分；不大于1时不重排
+     */
+    public List<DocumentChunk> vectorSearchWithThreshold(String query, int topK, double similarityThreshold,
+                                                         double oversample) {
+        return chunksOf(scoredSearch(query, topK, similarityThreshold, oversample));
+    }
+    
+    /**
+     * 带相似度的向量搜索：一次向量化、一次检索，按相似度从高到低返回过滤后的分块
+     *
+     * 调用方可在本地按相似度分档，不必用不同阈值重复检索
+     */
+    public List<ScoredChunk> scoredSearch(String query, int topK, double minSimilarity) {
+        return scoredSearch(query, topK, minSimilarity, oversample);
+    }
+    
+    /**
+     * 带相似度的向量搜索，指定本次查询的过采样倍数
+     */
+    public List<ScoredChunk> scoredSearch(String query, int topK, double minSimilarity, double oversample) {
+        return scoredSearch(query, null, topK, minSimilarity, oversample);
+    }
+    
+    /**
+     * 带相似度的向量搜索，使用调用方预先计算的查询向量和默认过采样倍数
+     */
+    public List<ScoredChunk> scoredSearch(String query, float[] queryVector, int topK, double minSimilarity) {
+        return scoredSearch(query, queryVector, topK, minSimilarity, oversample);
+    }
+    
+    /**
+     * 带相似度的向量搜索，使用调用方预先计算的查询向量
+     *
+     * @param queryVector 查询向量，为 null 时按查询文本向量化（经查询向量缓存）
+     */
+    public List<ScoredChunk> scoredSearch(String query, float[] queryVector, int topK, double minSimilarity,
+                                          double oversample) {
         try {
-            log.info("开始向量搜索（带阈值），查询: {}, topK: {}, 阈值: {}", query, topK, similarityThreshold);
+            log.info("开始向量搜索（带阈值），查询: {}, topK: {}, 阈值: {}, 过采样: {}",
+                    query, topK, minSimilarity, oversample);
             
             // 限制topK的最大值以避免num_candidates错误
             int limitedTopK = Math.min(topK, 1000);
@@ -91,30 +201,39 @@ public class VectorSearchService {
                 log.warn("topK值 {} 超过限制，调整为 {}", topK, limitedTopK);
             }
             
-            // 使用Spring AI VectorStore进行相似性搜索，设置相似度阈值
-            SearchRequest searchRequest = SearchRequest.builder()
-                    .query(query)
-                    .topK(limitedTopK)
-                    .similarityThreshold(similarityThreshold) // 关键：设置相似度阈值
-                    .build();
-            List<Document> documents = vectorStore.similaritySearch(searchRequest);
+            // 相似性搜索，设置相似度阈值
+            float[] vector = queryVector != null ? queryVector : queryEmbeddingService.embed(query);
+            
+            // 相近的查询已检索过时直接复用结果
+            String cacheParams = limitedTopK + "/" + minSimilarity + "/" + oversample;
+            long corpusVersion = semanticRetrievalCache.corpusVersion();
+            List<ScoredChunk> cached = semanticRetrievalCache.get(vector, cacheParams, corpusVersion);
+            if (cached != null) {
+                log.info("命中检索结果语义缓存，返回 {} 个文档块", cached.size());
+                return cached;
+            }
+            long cacheGeneration = semanticRetrievalCache.generation();
+            
+            List<ScoredChunk> documents = similaritySearch(vector, limitedTopK, minSimilarity, oversample);
             
-            log.info("向量搜索（阈值: {}）返回 {} 个结果", similarityThreshold, documents.size());
+            log.info("向量搜索（阈值: {}）返回 {} 个结果", minSimilarity, documents.size());
             
             // 如果没有找到满足阈值的文档，这本身就说明文档不相关
             if (documents.isEmpty()) {
-                log.info("❌ 没有找到相似度 >= {} 的文档，判定为不相关", similarityThreshold);
+                log.info("❌ 没有找到相似度 >= {} 的文档，判定为不相关", minSimilarity);
+                semanticRetrievalCache.put(vector, cacheParams, List.of(), cacheGeneration, corpusVersion);
                 return List.of();
             }
             
-            // 转换为DocumentChunk并过滤无用内容
-            List<DocumentChunk> chunks = documents.stream()
-                    .map(this::convertToDocumentChunk)
-                    .filter(this::isUsefulContent)  // 添加内容过滤
+            // 过滤无用内容
+            List<ScoredChunk> chunks = documents.stream()
+                    .filter(scored -> isUsefulContent(scored.chunk()))  // 添加内容过滤
+                    .sorted(Comparator.comparingDouble(ScoredChunk::similarity).reversed())
                     .collect(Collectors.toList());
             
             log.info("过滤后剩余 {} 个有用的文档块", chunks.size());
             
+            semanticRetrievalCache.put(vector, cacheParams, List.copyOf(chunks), cacheGeneration, corpusVersion);
             return chunks;
                     
         } catch (Exception e) {
@@ -123,6 +242,150 @@ public class VectorSearchService {
         }
     }
     
+    /**
+     * 检索到的分块及其余弦相似度
+     */
+    public record ScoredChunk(DocumentChunk chunk, double similarity) {
+    }
+    
+    private static List<DocumentChunk> chunksOf(List<ScoredChunk> scoredChunks) {
+        return scoredChunks.stream()
+                .map(ScoredChunk::chunk)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * refresh检索所用的索引，使刚写入或删除的分块立即对检索可见
+     *
+     * 发布 DocumentIndexChangedEvent 前调用，否则失效后的第一次检索可能读到旧内容并被重新缓存
+     */
+    public void refreshSearchIndex() {
+        String indexName = singleIndex
+                ? elasticsearchOperations.getIndexCoordinatesFor(DocumentChunk.class).getIndexName()
+                : vectorIndexName;
+        try {
+            elasticsearchClient.indices().refresh(r -> r.index(indexName));
+        } catch (Exception e) {
+            log.warn("refresh索引失败: {}, {}", indexName, e.getMessage());
+        }
+    }
+    
+    /**
+     * 是否使用单索引存储（向量保存在 document_chunks 中）
+     */
+    public boolean isSingleIndex() {
+        return singleIndex;
+    }
+    
+    /**
+     * 相似性搜索，返回余弦相似度不低于阈值的分块
+     *
+     * 过采样时kNN按量化向量召回 topK * oversample 个候选，再用script_score按原始float向量精确重排，
+     * 阈值在重排后按精确相似度过滤；双索引模式直接在 rag_vectors 上kNN检索，不支持重排
+     */
+    private List<ScoredChunk> similaritySearch(float[] vector, int topK, double similarityThreshold,
+                                               double oversample) throws IOException {
+        if (!singleIndex) {
+            return vectorStoreSearch(vector, topK, similarityThreshold);
+        }
+        
+        List<Float> queryVector = toFloatList(vector);
+        boolean rescore = oversample > 1.0;
+        int k = rescore ? Math.min((int) Math.ceil(topK * oversample), MAX_NUM_CANDIDATES) : topK;
+        // 候选数与Spring AI ElasticsearchVectorStore保持一致
+        int numCandidates = Math.min((int) Math.ceil(k * 1.5), MAX_NUM_CANDIDATES);
+        
+        NativeQueryBuilder builder = NativeQuery.builder()
+                .withKnnSearches(knn -> {
+                    knn.field("embedding")
+                            .queryVector(queryVector)
+                            .k(k)
+                            .numCandidates(numCandidates);
+                    // 重排时量化后的近似相似度不作为过滤条件
+                    if (similarityThreshold > 0 && !rescore) {
+                        knn.similarity((float) similarityThreshold);
+                    }
+                    return knn;
+                })
+                .withMaxResults(topK)
+                .withSourceFilter(SEARCH_SOURCE_FILTER);
+        if (rescore) {
+            builder.withRescorerQuery(new RescorerQuery(NativeQuery.builder()
+                    .withQuery(q -> q.scriptScore(ss -> ss
+                            .query(mq -> mq.matchAll(m -> m))
+                            .script(sc -> sc
+                                    .source(EXACT_COSINE_SCRIPT)
+                                    .params("query_vector", JsonData.of(queryVector)))))
+                    .build())
+                    .withWindowSize(k)
+                    .withQueryWeight(0.0f)
+                    .withRescoreQueryWeight(1.0f));
+        }
+        
+        SearchHits<DocumentChunk> hits = elasticsearchOperations.search(builder.build(), DocumentChunk.class);
+        return hits.getSearchHits().stream()
+                .filter(hit -> !rescore || 2.0 * hit.getScore() - 1.0 >= similarityThreshold)
+                .map(this::withSimilarity)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 双索引模式下在向量存储索引上kNN检索，文档格式与Spring AI ElasticsearchVectorStore一致
+     */
+    @SuppressWarnings("unchecked")
+    private List<ScoredChunk> vectorStoreSearch(float[] vector, int topK, double similarityThreshold)
+            throws IOException {
+        List<Float> queryVector = toFloatList(vector);
+        int numCandidates = Math.min((int) Math.ceil(topK * 1.5), MAX_NUM_CANDIDATES);
+        SearchResponse<Map> response = elasticsearchClient.search(s -> s
+                .index(vectorIndexName)
+                .knn(knn -> {
+                    knn.field("embedding")
+                            .queryVector(queryVector)
+                            .k(topK)
+                            .numCandidates(numCandidates);
+                    if (similarityThreshold > 0) {
+                        knn.similarity((float) similarityThreshold);
+                    }
+                    return knn;
+                })
+                .size(topK)
+                .source(src -> src.filter(f -> f.excludes("embedding"))), Map.class);
+        
+        List<ScoredChunk> results = new ArrayList<>();
+        for (Hit<Map> hit : response.hits().hits()) {
+            Map<String, Object> source = hit.source();
+            if (source == null) {
+                continue;
+            }
+            double similarity = 2.0 * (hit.score() != null ? hit.score() : 0.0) - 1.0;
+            Map<String, Object> metadata = new HashMap<>();
+            if (source.get("metadata") instanceof Map<?, ?> stored) {
+                metadata.putAll((Map<String, Object>) stored);
+            }
+            metadata.put("distance", 1.0 - similarity);
+            Document document = new Document(hit.id(), (String) source.get("content"), metadata);
+            results.add(new ScoredChunk(convertToDocumentChunk(document), similarity));
+        }
+        return results;
+    }
+    
+    /**
+     * 把kNN得分换算为余弦相似度，同时写入元数据，格式与Spring AI的distance一致
+     */
+    private ScoredChunk withSimilarity(SearchHit<DocumentChunk> hit) {
+        DocumentChunk chunk = hit.getContent();
+        // cosine相似度的kNN得分为 (1 + cos) / 2
+        double similarity = 2.0 * hit.getScore() - 1.0;
+        Map<String, Object> metadata = new HashMap<>();
+        if (chunk.getMetadata() != null) {
+            metadata.putAll(chunk.getMetadata());
+        }
+        metadata.put("distance", 1.0 - similarity);
+        chunk.setMetadata(metadata);
+        return new ScoredChunk(chunk, similarity);
+    }
+    
     /**
      * 判断文档块内容是否有用
      */
@@ -219,41 +482,230 @@ public class VectorSearchService {
     
     /**
      * 批量添加文档到向量存储
+     *
+     * 按embedding批次并发向量化并逐批写入，单批失败不影响其他批次
+     *
+     * @return 成功写入向量存储的文档块数量
      */
-    public void addDocumentsToVectorStore(List<DocumentChunk> chunks) {
-        try {
-            log.info("批量添加 {} 个文档块到向量存储", chunks.size());
-            
-            List<Document> documents = chunks.stream()
-                    .map(chunk -> {
-                        Document document = new Document(chunk.getContent());
-                        Map<String, Object> metadata = document.getMetadata();
-                        metadata.put("id", chunk.getId());
-                        metadata.put("documentId", chunk.getDocumentId());
-                        metadata.put("chunkIndex", chunk.getChunkIndex());
-                        metadata.put("category", chunk.getCategory());
-                        return document;
-                    })
+    public int addDocumentsToVectorStore(List<DocumentChunk> chunks) {
+        log.info("批量添加 {} 个文档块到向量存储", chunks.size());
+        
+        List<List<DocumentChunk>> batches = new ArrayList<>();
+        for (int start = 0; start < chunks.size(); start += embeddingBatchSize) {
+            batches.add(chunks.subList(start, Math.min(start + embeddingBatchSize, chunks.size())));
+        }
+        
+        // 所有批次同时提交，由向量化线程池控制并发；写入按批次顺序进行，与后续批次的向量化重叠
+        List<CompletableFuture<List<float[]>>> futures = batches.stream()
+                .map(batch -> chunkEmbeddingService.embedBatchAsync(
+                        batch.stream().map(DocumentChunk::getContent).collect(Collectors.toList())))
+                .collect(Collectors.toList());
+        
+        int addedChunks = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            List<DocumentChunk> batch = batches.get(i);
+            try {
+                addEmbeddedChunksToVectorStore(batch, futures.get(i).join());
+                addedChunks += batch.size();
+            } catch (Exception e) {
+                log.error("批次添加到向量存储失败，起始块: {}", batch.get(0).getId(), e);
+            }
+            log.info("向量存储写入进度: {}/{} 批, 已成功 {}/{} 个文档块",
+                i + 1, batches.size(), addedChunks, chunks.size());
+        }
+        
+        log.info("批量添加完成，成功 {}/{} 个文档块", addedChunks, chunks.size());
+        return addedChunks;
+    }
+    
+    /**
+     * 对一批文档块进行向量化（按embedding批次并发调用），返回顺序与输入一致
+     */
+    public List<float[]> embedChunks(List<DocumentChunk> chunks) {
+        List<String> texts = chunks.stream()
+                .map(DocumentChunk::getContent)
+                .collect(Collectors.toList());
+        return chunkEmbeddingService.embed(texts, (batchesDone, totalBatches, textsDone, totalTexts) ->
+                log.debug("向量化进度: {}/{} 批, {}/{} 个文档块", batchesDone, totalBatches, textsDone, totalTexts));
+    }
+    
+    /**
+     * 读取文档块已写入索引的向量，返回顺序与输入一致
+     *
+     * 向量从doc values读取，不需要 _source 保存向量；没有向量的分块（向量化失败尚未补写）才重新向量化
+     */
+    public List<float[]> loadEmbeddings(List<DocumentChunk> chunks) throws IOException {
+        String indexName = singleIndex
+                ? elasticsearchOperations.getIndexCoordinatesFor(DocumentChunk.class).getIndexName()
+                : vectorIndexName;
+        return loadEmbeddings(chunks, indexName);
+    }
+    
+    /**
+     * 从指定索引读取文档块的向量（向量索引迁移时从源索引读取）
+     */
+    public List<float[]> loadEmbeddings(List<DocumentChunk> chunks, String indexName) throws IOException {
+        Map<String, float[]> stored = new HashMap<>();
+        for (int start = 0; start < chunks.size(); start += STORED_VECTOR_BATCH_SIZE) {
+            List<String> ids = chunks.subList(start, Math.min(start + STORED_VECTOR_BATCH_SIZE, chunks.size()))
+                    .stream()
+                    .map(DocumentChunk::getId)
                     .collect(Collectors.toList());
-            
-            vectorStore.add(documents);
-            
-            log.info("成功批量添加 {} 个文档块到向量存储", chunks.size());
-            
-        } catch (Exception e) {
-            log.error("批量添加文档块到向量存储失败", e);
+            SearchResponse<Void> response = elasticsearchClient.search(s -> s
+                    .index(indexName)
+                    .query(q -> q.ids(i -> i.values(ids)))
+                    .size(ids.size())
+                    .source(src -> src.fetch(false))
+                    .scriptFields("embedding", sf -> sf.script(sc -> sc.source(STORED_VECTOR_SCRIPT))), Void.class);
+            for (Hit<Void> hit : response.hits().hits()) {
+                float[] vector = parseStoredVector(hit.fields().get("embedding"));
+                if (vector != null) {
+                    stored.put(hit.id(), vector);
+                }
+            }
+        }
+        
+        List<DocumentChunk> missing = chunks.stream()
+                .filter(chunk -> !stored.containsKey(chunk.getId()))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            log.info("{} 个分块在索引中没有向量，重新向量化", missing.size());
+            List<float[]> vectors = embedChunks(missing);
+            for (int i = 0; i < missing.size(); i++) {
+                stored.put(missing.get(i).getId(), vectors.get(i));
+            }
         }
+        return chunks.stream()
+                .map(chunk -> stored.get(chunk.getId()))
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 解析script_fields返回的向量，格式为只含一个元素的数组：[[v0, v1, ...]]
+     */
+    private static float[] parseStoredVector(JsonData value) {
+        if (value == null) {
+            return null;
+        }
+        JsonValue json = value.toJson();
+        if (json.getValueType() != JsonValue.ValueType.ARRAY || json.asJsonArray().isEmpty()) {
+            return null;
+        }
+        JsonValue first = json.asJsonArray().get(0);
+        if (first.getValueType() != JsonValue.ValueType.ARRAY) {
+            return null;
+        }
+        JsonArray values = first.asJsonArray();
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) values.getJsonNumber(i).doubleValue();
+        }
+        return vector;
+    }
+    
+    /**
+     * 为文档块设置向量，单索引模式下随分块一起写入 document_chunks
+     */
+    public void attachEmbeddings(List<DocumentChunk> chunks, List<float[]> vectors) {
+        if (chunks.size() != vectors.size()) {
+            throw new IllegalArgumentException("文档块数量与向量数量不一致: " + chunks.size() + " != " + vectors.size());
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            chunks.get(i).setEmbedding(toFloatList(vectors.get(i)));
+        }
+    }
+    
+    /**
+     * 写入已向量化的文档块：单索引模式下重新写入带向量的分块，否则写入向量存储
+     */
+    public void writeEmbeddedChunks(List<DocumentChunk> chunks, List<float[]> vectors) throws IOException {
+        if (singleIndex) {
+            attachEmbeddings(chunks, vectors);
+            documentChunkRepository.bulkIndex(chunks);
+        } else {
+            addEmbeddedChunksToVectorStore(chunks, vectors);
+        }
+    }
+    
+    private static List<Float> toFloatList(float[] vector) {
+        List<Float> values = new ArrayList<>(vector.length);
+        for (float value : vector) {
+            values.add(value);
+        }
+        return values;
+    }
+    
+    /**
+     * 将已向量化的文档块写入向量存储（一次bulk请求，不再重复调用embedding）
+     *
+     * 文档格式与Spring AI ElasticsearchVectorStore保持一致，使用块ID作为_id，重复写入会覆盖而不是产生重复向量
+     */
+    public void addEmbeddedChunksToVectorStore(List<DocumentChunk> chunks, List<float[]> vectors) throws IOException {
+        if (chunks.size() != vectors.size()) {
+            throw new IllegalArgumentException("文档块数量与向量数量不一致: " + chunks.size() + " != " + vectors.size());
+        }
+        vectorIndexWriteGate.awaitWritable(vectorIndexName);
+        
+        BulkRequest.Builder bulk = new BulkRequest.Builder();
+        for (int i = 0; i < chunks.size(); i++) {
+            DocumentChunk chunk = chunks.get(i);
+            Map<String, Object> source = Map.of(
+                    "id", chunk.getId(),
+                    "content", chunk.getContent(),
+                    "metadata", buildVectorMetadata(chunk),
+                    "embedding", vectors.get(i));
+            bulk.operations(op -> op.index(idx -> idx
+                    .index(vectorIndexName)
+                    .id(chunk.getId())
+                    .document(source)));
+        }
+        
+        BulkResponse response = elasticsearchClient.bulk(bulk.build());
+        if (response.errors()) {
+            String reason = response.items().stream()
+                    .filter(item -> item.error() != null)
+                    .map(BulkResponseItem::error)
+                    .map(error -> error.reason())
+                    .findFirst()
+                    .orElse("unknown");
+            throw new IllegalStateException("写入向量存储失败: " + reason);
+        }
+        
+        log.debug("已写入 {} 个向量到 {}", chunks.size(), vectorIndexName);
+    }
+    
+    /**
+     * 构建向量存储中的元数据
+     */
+    private Map<String, Object> buildVectorMetadata(DocumentChunk chunk) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (chunk.getMetadata() != null) {
+            metadata.putAll(chunk.getMetadata());
+        }
+        metadata.put("id", chunk.getId());
+        metadata.put("documentId", chunk.getDocumentId());
+        metadata.put("chunkIndex", chunk.getChunkIndex());
+        metadata.put("category", chunk.getCategory());
+        return metadata;
     }
     
     /**
      * 从向量存储删除文档
      */
     public void deleteDocumentFromVectorStore(String documentId) {
+        if (singleIndex) {
+            // 向量随分块保存，删除分块时一并删除
+            return;
+        }
         try {
             log.info("从向量存储删除文档: {}", documentId);
             
             // 使用Spring AI VectorStore的delete方法，通过元数据过滤删除指定documentId的所有向量
             String filterExpression = String.format("documentId == '%s'", documentId);
+            if (vectorIndexWriteGate.deferIfMigrating(vectorIndexName, documentId,
+                    () -> vectorStore.delete(filterExpression))) {
+                return;
+            }
             vectorStore.delete(filterExpression);
             
             log.info("成功从向量存储删除文档: {}", documentId);
@@ -264,6 +716,22 @@ public class VectorSearchService {
         }
     }
     
+    /**
+     * 从向量存储删除文档中序号不小于 fromChunkIndex 的分块
+     */
+    public void deleteChunksFromVectorStore(String documentId, int fromChunkIndex) {
+        if (singleIndex) {
+            return;
+        }
+        String filterExpression = String.format("documentId == '%s' && chunkIndex >= %d", documentId, fromChunkIndex);
+        if (vectorIndexWriteGate.deferIfMigrating(vectorIndexName, documentId,
+                () -> vectorStore.delete(filterExpression))) {
+            return;
+        }
+        vectorStore.delete(filterExpression);
+        log.debug("已删除向量存储中的旧分块: {}, 起始序号 {}", documentId, fromChunkIndex);
+    }
+    
     /**
      * 根据documentId查找向量存储中的文档
      */
@@ -330,6 +798,7 @@ public class VectorSearchService {
                 .content(document.getText())
                 .chunkIndex((Integer) metadata.get("chunkIndex"))
                 .category((String) metadata.get("category"))
+                .metadata(metadata)
                 .build();
     }
 } 
\ No newline at end of file
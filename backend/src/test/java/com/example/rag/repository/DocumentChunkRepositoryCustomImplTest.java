@@ -0,0 +1,141 @@
+package com.example.rag.repository;
+
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.ErrorCause;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.service.VectorIndexWriteGate;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DocumentChunkRepositoryCustomImplTest {
+
+    private static final String INDEX = "document_chunks";
+
+    private ElasticsearchClient elasticsearchClient;
+    private DocumentChunkRepositoryCustomImpl repository;
+    private final List<List<String>> sentIds = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ElasticsearchOperations operations = mock(ElasticsearchOperations.class);
+        ElasticsearchConverter converter = mock(ElasticsearchConverter.class);
+        when(operations.getElasticsearchConverter()).thenReturn(converter);
+        when(converter.mapObject(any())).thenAnswer(invocation ->
+                Document.create().append("id", invocation.<DocumentChunk>getArgument(0).getId()));
+
+        elasticsearchClient = mock(ElasticsearchClient.class);
+        repository = new DocumentChunkRepositoryCustomImpl(operations, elasticsearchClient,
+                mock(RestClient.class), mock(VectorIndexWriteGate.class));
+        ReflectionTestUtils.setField(repository, "batchSize", 500);
+        ReflectionTestUtils.setField(repository, "maxBytes", 5_242_880L);
+        ReflectionTestUtils.setField(repository, "maxRetries", 2);
+        ReflectionTestUtils.setField(repository, "retryBackoffMs", 0L);
+    }
+
+    @Test
+    void retriesOnlyRejectedItems() throws Exception {
+        respond(List.of(200, 429, 200, 503), List.of(200, 200));
+
+        repository.bulkIndex(chunks(4), INDEX);
+
+        assertThat(sentIds).containsExactly(
+                List.of("c0", "c1", "c2", "c3"),
+                List.of("c1", "c3"));
+    }
+
+    @Test
+    void retriesRemainingRejectionsUntilAccepted() throws Exception {
+        respond(List.of(429, 429, 200), List.of(200, 429), List.of(200));
+
+        repository.bulkIndex(chunks(3), INDEX);
+
+        assertThat(sentIds).containsExactly(
+                List.of("c0", "c1", "c2"),
+                List.of("c0", "c1"),
+                List.of("c1"));
+    }
+
+    @Test
+    void failsWithoutRetryOnNonRetryableErrors() throws Exception {
+        respond(List.of(200, 400, 429));
+
+        assertThatThrownBy(() -> repository.bulkIndex(chunks(3), INDEX))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("c1");
+        assertThat(sentIds).hasSize(1);
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws Exception {
+        respond(List.of(429, 200), List.of(429), List.of(429));
+
+        assertThatThrownBy(() -> repository.bulkIndex(chunks(2), INDEX))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("1 条被拒绝");
+        assertThat(sentIds).hasSize(3);
+    }
+
+    @Test
+    void splitsRequestsByBatchSize() throws Exception {
+        ReflectionTestUtils.setField(repository, "batchSize", 2);
+        respond(List.of(200, 200), List.of(200, 200), List.of(200));
+
+        repository.bulkIndex(chunks(5), INDEX);
+
+        assertThat(sentIds).containsExactly(List.of("c0", "c1"), List.of("c2", "c3"), List.of("c4"));
+    }
+
+    /**
+     * 依次返回给定的条目状态，并记录每次请求发送的条目
+     */
+    @SafeVarargs
+    private void respond(List<Integer>... statusesPerRequest) throws Exception {
+        int[] call = {0};
+        when(elasticsearchClient.bulk(any(BulkRequest.class))).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(0);
+            List<String> ids = request.operations().stream().map(op -> op.index().id()).toList();
+            sentIds.add(ids);
+            List<Integer> statuses = statusesPerRequest[call[0]++];
+            return response(ids, statuses);
+        });
+    }
+
+    private static BulkResponse response(List<String> ids, List<Integer> statuses) {
+        List<BulkResponseItem> items = IntStream.range(0, ids.size())
+                .mapToObj(i -> BulkResponseItem.of(item -> {
+                    item.operationType(OperationType.Index).index(INDEX).id(ids.get(i)).status(statuses.get(i));
+                    if (statuses.get(i) >= 300) {
+                        item.error(ErrorCause.of(e -> e.type("error").reason("status " + statuses.get(i))));
+                    }
+                    return item;
+                }))
+                .toList();
+        boolean errors = statuses.stream().anyMatch(status -> status >= 300);
+        return BulkResponse.of(r -> r.errors(errors).took(1).items(items));
+    }
+
+    private static List<DocumentChunk> chunks(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> DocumentChunk.builder().id("c" + i).documentId("doc-1").chunkIndex(i).build())
+                .toList();
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.rag.service;
+
+import com.example.rag.model.Document;
+import com.example.rag.model.DocumentChunk;
+import com.example.rag.repository.DocumentChunkRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Timeout(30)
+class DocumentIngestionPipelineTest {
+
+    private DocumentChunkRepository documentChunkRepository;
+    private VectorSearchService vectorSearchService;
+    private ChunkDeadLetterService chunkDeadLetterService;
+    private ThreadPoolTaskExecutor stageExecutor;
+    private DocumentIngestionPipeline pipeline;
+    private Document document;
+
+    @BeforeEach
+    void setUp() {
+        documentChunkRepository = mock(DocumentChunkRepository.class);
+        vectorSearchService = mock(VectorSearchService.class);
+        chunkDeadLetterService = mock(ChunkDeadLetterService.class);
+        stageExecutor = new ThreadPoolTaskExecutor();
+        stageExecutor.setCorePoolSize(3);
+        stageExecutor.setMaxPoolSize(3);
+        stageExecutor.initialize();
+        pipeline = new DocumentIngestionPipeline(documentChunkRepository, vectorSearchService, chunkDeadLetterService,
+                stageExecutor);
+        ReflectionTestUtils.setField(pipeline, "batchSize", 4);
+        ReflectionTestUtils.setField(pipeline, "queueCapacity", 2);
+        ReflectionTestUtils.setField(pipeline, "embedWorkers", 2);
+        ReflectionTestUtils.setField(pipeline, "indexWorkers", 1);
+        ReflectionTestUtils.setField(pipeline, "bulkModeThreshold", 1000);
+        document = Document.builder().documentId("doc-1").build();
+
+        when(vectorSearchService.embedChunks(anyList())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = invocation.getArgument(0);
+            return Collections.nCopies(chunks.size(), new float[]{1f, 0f});
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        stageExecutor.shutdown();
+    }
+
+    @Test
+    void indexesAllChunksAndAdvancesCheckpoint() throws Exception {
+        List<Integer> checkpoints = Collections.synchronizedList(new ArrayList<>());
+
+        int total;
+        try (DocumentIngestionPipeline.Run run = pipeline.start(document, 0, checkpoints::add)) {
+            for (int i = 0; i < 10; i++) {
+                run.accept("chunk " + i, i * 10, i * 10 + 9);
+            }
+            total = run.finish();
+        }
+
+        assertThat(total).isEqualTo(10);
+        assertThat(checkpoints).isNotEmpty().isSorted();
+        assertThat(checkpoints.get(checkpoints.size() - 1)).isEqualTo(10);
+        verify(chunkDeadLetterService, never()).record(anyList(), any());
+    }
+
+    @Test
+    void skipsChunksBeforeResumePoint() throws Exception {
+        List<DocumentChunk> indexed = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            indexed.addAll(invocation.getArgument(0));
+            return null;
+        }).when(documentChunkRepository).bulkIndex(anyList());
+
+        try (DocumentIngestionPipeline.Run run = pipeline.start(document, 6, null)) {
+            for (int i = 0; i < 10; i++) {
+                run.accept("chunk " + i, i, i + 1);
+            }
+            assertThat(run.finish()).isEqualTo(10);
+        }
+
+        assertThat(indexed).extracting(DocumentChunk::getChunkIndex).containsExactlyInAnyOrder(6, 7, 8, 9);
+    }
+
+    @Test
+    void recordsDeadLettersWhenEmbeddingFails() throws Exception {
+        when(vectorSearchService.embedChunks(anyList())).thenThrow(new IllegalStateException("ollama down"));
+
+        try (DocumentIngestionPipeline.Run run = pipeline.start(document)) {
+            for (int i = 0; i < 4; i++) {
+                run.accept("chunk " + i, i, i + 1);
+            }
+            assertThat(run.finish()).isEqualTo(4);
+        }
+
+        verify(chunkDeadLetterService).record(anyList(), any(IllegalStateException.class));
+        verify(documentChunkRepository).bulkIndex(anyList());
+    }
+
+    @Test
+    void finishFailsWhenIndexStageFails() {
+        doThrow(new IllegalStateException("es down")).when(documentChunkRepository).bulkIndex(anyList());
+
+        DocumentIngestionPipeline.Run run = pipeline.start(document);
+        assertThatThrownBy(() -> {
+            try (run) {
+                for (int i = 0; i < 40; i++) {
+                    run.accept("chunk " + i, i, i + 1);
+                }
+                run.finish();
+            }
+        }).isInstanceOf(IllegalStateException.class).hasStackTraceContaining("es down");
+    }
+
+    @Test
+    void stopsWhenRequested() {
+        AtomicBoolean stopped = new AtomicBoolean();
+
+        DocumentIngestionPipeline.Run run = pipeline.start(document, 0, null, stopped::get);
+        try (run) {
+            run.accept("chunk 0", 0, 1);
+            stopped.set(true);
+            assertThatThrownBy(() -> run.accept("chunk 1", 1, 2)).isInstanceOf(CancellationException.class);
+        }
+    }
+
+    @Test
+    void closeBeforeFinishShutsDownStages() {
+        DocumentIngestionPipeline.Run run = pipeline.start(document);
+        run.accept("chunk 0", 0, 1);
+
+        run.close();
+
+        assertThatThrownBy(run::finish).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void consecutiveRunsShareStageExecutor() throws Exception {
+        for (int attempt = 0; attempt < 3; attempt++) {
+            try (DocumentIngestionPipeline.Run run = pipeline.start(document)) {
+                for (int i = 0; i < 8; i++) {
+                    run.accept("chunk " + i, i, i + 1);
+                }
+                assertThat(run.finish()).isEqualTo(8);
+            }
+        }
+
+        assertThat(stageExecutor.getPoolSize()).isEqualTo(3);
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.DocumentUploadRequest;
+import com.example.rag.model.Document;
+import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.repository.DocumentRepository;
+import com.example.rag.repository.IngestionJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DocumentServiceTest {
+
+    private static final byte[] CONTENT = "图书馆开放时间为每天 8:00-22:00。".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path uploadDir;
+
+    private DocumentRepository documentRepository;
+    private ApplicationEventPublisher eventPublisher;
+    private DocumentService documentService;
+
+    @BeforeEach
+    void setUp() {
+        documentRepository = mock(DocumentRepository.class);
+        eventPublisher = mock(ApplicationEventPublisher.class);
+        documentService = new DocumentService(documentRepository, mock(DocumentChunkRepository.class),
+                mock(VectorSearchService.class), mock(DocumentIngestionPipeline.class),
+                mock(PdfExtractionService.class), mock(ExtractedTextCache.class),
+                mock(ChunkDeadLetterService.class), mock(IngestionJobRepository.class),
+                eventPublisher);
+        ReflectionTestUtils.setField(documentService, "uploadPath", uploadDir.toString());
+        ReflectionTestUtils.setField(documentService, "maxFileSize", 52_428_800L);
+        ReflectionTestUtils.setField(documentService, "allowedTypes", "pdf,txt,md,docx,doc");
+        when(documentRepository.save(any(Document.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    }
+
+    @Test
+    void storesNewContentWithItsHashForIngestion() throws Exception {
+        when(documentRepository.findFirstByContentHashAndStatusAndSourceDocumentIdIsNullOrderByUploadTimeAsc(
+                anyString(), eq(Document.DocumentStatus.COMPLETED))).thenReturn(Optional.empty());
+
+        Document document = documentService.uploadDocument(uploadRequest(), null, "doc-2");
+
+        assertThat(document.getDocumentId()).isEqualTo("doc-2");
+        assertThat(document.getContentHash()).isEqualTo(sha256(CONTENT));
+        assertThat(document.getStatus()).isEqualTo(Document.DocumentStatus.PROCESSING);
+        assertThat(document.getSourceDocumentId()).isNull();
+        assertThat(uploadDir.resolve(document.getFilename())).hasBinaryContent(CONTENT);
+        // 入库完成前文档不可检索，不需要让缓存失效
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
+    }
+
+    @Test
+    void duplicateContentReusesCompletedSourceWithoutKeepingFile() throws Exception {
+        Document source = Document.builder()
+                .documentId("doc-1")
+                .filename("source.txt")
+                .chunksCount(12)
+                .status(Document.DocumentStatus.COMPLETED)
+                .build();
+        when(documentRepository.findFirstByContentHashAndStatusAndSourceDocumentIdIsNullOrderByUploadTimeAsc(
+                sha256(CONTENT), Document.DocumentStatus.COMPLETED)).thenReturn(Optional.of(source));
+
+        Document document = documentService.uploadDocument(uploadRequest(), null, "doc-2");
+
+        assertThat(document.getSourceDocumentId()).isEqualTo("doc-1");
+        assertThat(document.getStatus()).isEqualTo(Document.DocumentStatus.COMPLETED);
+        assertThat(document.getFilename()).isEqualTo("source.txt");
+        assertThat(document.getChunksCount()).isEqualTo(12);
+        assertThat(document.getContentHash()).isEqualTo(sha256(CONTENT));
+        try (var files = Files.list(uploadDir)) {
+            assertThat(files).isEmpty();
+        }
+        verify(eventPublisher).publishEvent(new DocumentIndexChangedEvent("doc-2"));
+    }
+
+    private static DocumentUploadRequest uploadRequest() {
+        DocumentUploadRequest request = new DocumentUploadRequest();
+        request.setFile(new MockMultipartFile("file", "hours.txt", "text/plain", CONTENT));
+        return request;
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.rag.service;
+
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DocxTextReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsParagraphsTabsBreaksAndTableRows() throws Exception {
+        Path docx = tempDir.resolve("sample.docx");
+        try (XWPFDocument document = new XWPFDocument(); OutputStream out = Files.newOutputStream(docx)) {
+            document.createParagraph().createRun().setText("第一段");
+
+            XWPFParagraph tabbed = document.createParagraph();
+            XWPFRun before = tabbed.createRun();
+            before.setText("前");
+            before.addTab();
+            tabbed.createRun().setText("后");
+
+            XWPFParagraph broken = document.createParagraph();
+            XWPFRun firstLine = broken.createRun();
+            firstLine.setText("行一");
+            firstLine.addBreak();
+            broken.createRun().setText("行二");
+
+            XWPFTable table = document.createTable(1, 2);
+            table.getRow(0).getCell(0).setText("A");
+            table.getRow(0).getCell(1).setText("B");
+
+            document.createParagraph().createRun().setText("末段");
+            document.write(out);
+        }
+
+        String text;
+        try (DocxTextReader reader = new DocxTextReader(docx)) {
+            text = readAll(reader);
+        }
+
+        assertThat(text).isEqualTo("第一段\n前\t后\n行一\n行二\nA\tB\n末段\n");
+    }
+
+    @Test
+    void rejectsArchiveWithoutMainDocumentPart() throws Exception {
+        Path notDocx = tempDir.resolve("empty.docx");
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(notDocx))) {
+            zip.putNextEntry(new ZipEntry("word/styles.xml"));
+            zip.write("<styles/>".getBytes());
+            zip.closeEntry();
+        }
+
+        assertThatThrownBy(() -> new DocxTextReader(notDocx))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("word/document.xml");
+    }
+
+    /**
+     * 用很小的缓冲区读完全部文本，覆盖跨段落读取
+     */
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[3];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+}
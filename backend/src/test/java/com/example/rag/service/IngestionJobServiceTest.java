@@ -0,0 +1,226 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.DocumentUploadRequest;
+import com.example.rag.dto.DocumentUploadResponse;
+import com.example.rag.exception.IngestionQueueFullException;
+import com.example.rag.model.Document;
+import com.example.rag.model.IngestionJob;
+import com.example.rag.repository.DocumentChunkRepository;
+import com.example.rag.repository.DocumentRepository;
+import com.example.rag.repository.IngestionJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IngestionJobServiceTest {
+
+    private static final String NODE = "node-a";
+
+    private DocumentService documentService;
+    private DocumentRepository documentRepository;
+    private IngestionJobRepository ingestionJobRepository;
+    private ThreadPoolTaskExecutor ingestionExecutor;
+    private IngestionJobService service;
+
+    @BeforeEach
+    void setUp() {
+        documentService = mock(DocumentService.class);
+        documentRepository = mock(DocumentRepository.class);
+        ingestionJobRepository = mock(IngestionJobRepository.class);
+        ingestionExecutor = mock(ThreadPoolTaskExecutor.class);
+        service = new IngestionJobService(documentService, documentRepository, mock(DocumentChunkRepository.class),
+                ingestionJobRepository, ingestionExecutor, mock(PlatformTransactionManager.class), 1, NODE);
+        ReflectionTestUtils.setField(service, "queueCapacity", 2L);
+        ReflectionTestUtils.setField(service, "retryAfterSeconds", 30L);
+        ReflectionTestUtils.setField(service, "backgroundConcurrency", 1L);
+        ReflectionTestUtils.setField(service, "leaseSeconds", 60L);
+        ReflectionTestUtils.setField(service, "reservationTimeoutSeconds", 600L);
+
+        when(ingestionJobRepository.save(any(IngestionJob.class))).thenAnswer(invocation -> {
+            IngestionJob job = invocation.getArgument(0);
+            job.setId(UUID.randomUUID());
+            return job;
+        });
+        // 工作线程池同步执行提交的任务
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(ingestionExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    void rejectsUploadBeforeWritingWhenQueueIsFull() {
+        when(ingestionJobRepository.countByStatusInAndLane(anyCollection(), eq(IngestionJob.JobLane.NORMAL)))
+                .thenReturn(2L);
+
+        assertThatThrownBy(() -> service.submitUpload(uploadRequest(), null))
+                .isInstanceOf(IngestionQueueFullException.class);
+
+        verify(ingestionJobRepository).lockQueue(IngestionJobService.QUEUE_LOCK_KEY);
+        verify(ingestionJobRepository, never()).save(any(IngestionJob.class));
+        verify(documentService, never()).uploadDocument(any(), any(), anyString());
+    }
+
+    @Test
+    void reservesSlotBeforeUploadAndQueuesJobAfterwards() {
+        when(documentService.uploadDocument(any(), any(), anyString())).thenAnswer(invocation ->
+                Document.builder().documentId(invocation.getArgument(2)).build());
+
+        DocumentUploadResponse response = service.submitUpload(uploadRequest(), null);
+
+        IngestionJob reserved = captureReservation();
+        assertThat(reserved.getDocumentId()).isEqualTo(response.getDocumentId());
+        assertThat(reserved.getOwnerNode()).isEqualTo(NODE);
+        verify(ingestionJobRepository).activateReservation(eq(reserved.getId()), any());
+        assertThat(response.getJobStatus()).isEqualTo(IngestionJob.JobStatus.QUEUED);
+    }
+
+    @Test
+    void releasesReservationWhenUploadFails() {
+        when(documentService.uploadDocument(any(), any(), anyString()))
+                .thenThrow(new RuntimeException("文档上传失败: disk full"));
+
+        assertThatThrownBy(() -> service.submitUpload(uploadRequest(), null)).hasMessageContaining("disk full");
+
+        verify(ingestionJobRepository).deleteById(captureReservation().getId());
+        verify(ingestionJobRepository, never()).activateReservation(any(), any());
+    }
+
+    @Test
+    void releasesReservationForDuplicateUpload() {
+        when(documentService.uploadDocument(any(), any(), anyString())).thenAnswer(invocation ->
+                Document.builder().documentId(invocation.getArgument(2)).sourceDocumentId("doc-0")
+                        .status(Document.DocumentStatus.COMPLETED).build());
+
+        DocumentUploadResponse response = service.submitUpload(uploadRequest(), null);
+
+        assertThat(response.getJobId()).isNull();
+        verify(ingestionJobRepository).deleteById(captureReservation().getId());
+        verify(ingestionJobRepository, never()).activateReservation(any(), any());
+    }
+
+    @Test
+    void skipsJobClaimedByAnotherNode() {
+        IngestionJob job = queuedJob();
+        when(ingestionJobRepository.findByStatusAndLaneOrderByCreatedAtAsc(
+                eq(IngestionJob.JobStatus.QUEUED), eq(IngestionJob.JobLane.NORMAL), any()))
+                .thenReturn(List.of(job));
+        when(ingestionJobRepository.claim(eq(job.getId()), eq(NODE), any())).thenReturn(0);
+
+        service.dispatch();
+
+        verify(ingestionExecutor, never()).execute(any(Runnable.class));
+    }
+
+    @Test
+    void recordsCompletionOnlyForJobStillOwnedByThisNode() {
+        IngestionJob job = claimableJob();
+        Document document = Document.builder().documentId(job.getDocumentId()).build();
+        when(documentRepository.findByDocumentId(job.getDocumentId())).thenReturn(Optional.of(document));
+        when(documentRepository.save(any(Document.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        doAnswer(invocation -> {
+            document.setStatus(Document.DocumentStatus.COMPLETED);
+            return null;
+        }).when(documentService).processDocument(any(), any());
+
+        service.dispatch();
+
+        verify(documentService).processDocument(eq(document), any());
+        verify(ingestionJobRepository).finish(eq(job.getId()), eq(NODE), eq(IngestionJob.JobStatus.COMPLETED),
+                isNull(), any());
+        verify(ingestionJobRepository, never()).save(any(IngestionJob.class));
+    }
+
+    @Test
+    void stopsJobWhoseLeaseWasTakenOver() {
+        IngestionJob job = claimableJob();
+        Document document = Document.builder().documentId(job.getDocumentId()).build();
+        when(documentRepository.findByDocumentId(job.getDocumentId())).thenReturn(Optional.of(document));
+        when(documentRepository.save(any(Document.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        IngestionJob takenOver = IngestionJob.builder().id(job.getId()).jobId(job.getJobId())
+                .documentId(job.getDocumentId()).status(IngestionJob.JobStatus.RUNNING).ownerNode("node-b").build();
+        when(ingestionJobRepository.findAllById(anyCollection())).thenReturn(List.of(takenOver));
+
+        AtomicBoolean stopped = new AtomicBoolean();
+        doAnswer(invocation -> {
+            BooleanSupplier stop = invocation.getArgument(1);
+            service.renewLeases();
+            stopped.set(stop.getAsBoolean());
+            return null;
+        }).when(documentService).processDocument(any(), any());
+
+        service.dispatch();
+
+        assertThat(stopped).isTrue();
+        verify(ingestionJobRepository).renewLeases(anyCollection(), eq(NODE), any());
+        verify(ingestionJobRepository, never()).finish(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void requeuesClaimedJobWhenExecutorRejectsIt() {
+        IngestionJob job = claimableJob();
+        doThrow(new TaskRejectedException("busy")).when(ingestionExecutor).execute(any(Runnable.class));
+
+        service.dispatch();
+
+        verify(ingestionJobRepository).release(eq(job.getId()), eq(NODE), any());
+        verify(ingestionJobRepository, never()).save(any(IngestionJob.class));
+    }
+
+    private IngestionJob claimableJob() {
+        IngestionJob job = queuedJob();
+        when(ingestionJobRepository.findByStatusAndLaneOrderByCreatedAtAsc(
+                eq(IngestionJob.JobStatus.QUEUED), eq(IngestionJob.JobLane.NORMAL), any()))
+                .thenReturn(List.of(job))
+                .thenReturn(List.of());
+        when(ingestionJobRepository.claim(eq(job.getId()), eq(NODE), any())).thenReturn(1);
+        when(ingestionJobRepository.findById(job.getId())).thenReturn(Optional.of(job));
+        return job;
+    }
+
+    private static IngestionJob queuedJob() {
+        return IngestionJob.builder()
+                .id(UUID.randomUUID())
+                .jobId(UUID.randomUUID().toString())
+                .documentId("doc-1")
+                .status(IngestionJob.JobStatus.QUEUED)
+                .build();
+    }
+
+    private IngestionJob captureReservation() {
+        ArgumentCaptor<IngestionJob> captor = ArgumentCaptor.forClass(IngestionJob.class);
+        verify(ingestionJobRepository).save(captor.capture());
+        assertThat(captor.getValue().getLane()).isEqualTo(IngestionJob.JobLane.NORMAL);
+        return captor.getValue();
+    }
+
+    private static DocumentUploadRequest uploadRequest() {
+        DocumentUploadRequest request = new DocumentUploadRequest();
+        request.setAutoProcess(true);
+        return request;
+    }
+}
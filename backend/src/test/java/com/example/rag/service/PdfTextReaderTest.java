@@ -0,0 +1,147 @@
+package com.example.rag.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PdfTextReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsPagesInOrderAndRecordsPageOffsets() throws Exception {
+        Path pdf = createPdf(7);
+
+        String text;
+        PageOffsets offsets;
+        try (PdfTextReader reader = new PdfTextReader(pdf, 3)) {
+            assertThat(reader.getPageCount()).isEqualTo(7);
+            text = readAll(reader);
+            offsets = reader.getPageOffsets();
+        }
+
+        int previous = -1;
+        for (int page = 1; page <= 7; page++) {
+            int position = text.indexOf(label(page));
+            assertThat(position).isGreaterThan(previous);
+            assertThat(offsets.pageAt(position)).isEqualTo(page);
+            previous = position;
+        }
+        assertThat(offsets.toArray()).hasSize(7);
+    }
+
+    @Test
+    void extractsOnlyOnePageRangeAhead() throws Exception {
+        Path pdf = createPdf(7);
+
+        try (PdfTextReader reader = new PdfTextReader(pdf, 3)) {
+            assertThat(reader.read()).isNotEqualTo(-1);
+
+            assertThat(ReflectionTestUtils.getField(reader, "nextPage")).isEqualTo(4);
+            assertThat(reader.getPageOffsets().toArray()).hasSize(1);
+        }
+    }
+
+    @Test
+    void parallelExtractionMatchesSequentialOutput() throws Exception {
+        Path pdf = createPdf(20);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        String sequential;
+        int[] sequentialOffsets;
+        try (PdfTextReader reader = new PdfTextReader(pdf, 2)) {
+            sequential = readAll(reader);
+            sequentialOffsets = reader.getPageOffsets().toArray();
+        }
+
+        try (PdfTextReader reader = new PdfTextReader(pdf, 2)) {
+            reader.enableParallelExtraction(executor, 4);
+            assertThat(readAll(reader)).isEqualTo(sequential);
+            assertThat(reader.getPageOffsets().toArray()).isEqualTo(sequentialOffsets);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void parallelExtractionBoundsRangesSubmittedAhead() throws Exception {
+        Path pdf = createPdf(20);
+        AtomicInteger submitted = new AtomicInteger();
+
+        try (PdfTextReader reader = new PdfTextReader(pdf, 2)) {
+            reader.enableParallelExtraction(task -> {
+                submitted.incrementAndGet();
+                task.run();
+            }, 2);
+            assertThat(reader.read()).isNotEqualTo(-1);
+
+            // 消费第一个范围后补足到 2 个在途范围
+            assertThat(submitted).hasValue(3);
+        }
+    }
+
+    @Test
+    void cannotSwitchToParallelAfterReadingStarted() throws Exception {
+        Path pdf = createPdf(4);
+
+        try (PdfTextReader reader = new PdfTextReader(pdf, 1)) {
+            reader.read();
+
+            assertThatThrownBy(() -> reader.enableParallelExtraction(Runnable::run, 2))
+                    .isInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    private Path createPdf(int pages) throws IOException {
+        Path file = tempDir.resolve("pages-" + pages + ".pdf");
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int page = 1; page <= pages; page++) {
+                PDPage pdfPage = new PDPage();
+                document.addPage(pdfPage);
+                try (PDPageContentStream content = new PDPageContentStream(document, pdfPage)) {
+                    content.beginText();
+                    content.setFont(font, 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText(label(page));
+                    content.endText();
+                }
+            }
+            document.save(file.toFile());
+        }
+        return file;
+    }
+
+    private static String label(int page) {
+        return String.format("Page %03d", page);
+    }
+
+    /**
+     * 用很小的缓冲区读完全部文本，覆盖跨页读取
+     */
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[5];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            text.append(buffer, 0, count);
+        }
+        return text.toString();
+    }
+}
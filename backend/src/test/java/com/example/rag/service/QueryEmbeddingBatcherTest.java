@@ -0,0 +1,127 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@Timeout(30)
+class QueryEmbeddingBatcherTest {
+
+    private EmbeddingModel embeddingModel;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryEmbeddingBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        embeddingModel = mock(EmbeddingModel.class);
+        // 向量的第一维是文本长度，便于核对每个请求拿到的是自己的向量
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> invocation.<List<String>>getArgument(0)
+                .stream()
+                .map(text -> new float[]{text.length(), 1f})
+                .toList());
+        meterRegistry = new SimpleMeterRegistry();
+        batcher = new QueryEmbeddingBatcher(embeddingModel, meterRegistry, 2, 64, 4);
+        ReflectionTestUtils.setField(batcher, "enabled", true);
+        ReflectionTestUtils.setField(batcher, "windowMs", 200L);
+        ReflectionTestUtils.setField(batcher, "maxSize", 32);
+        ReflectionTestUtils.setField(batcher, "timeoutMs", 10_000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        batcher.shutdown();
+    }
+
+    @Test
+    void mergesQueriesWithinWindowIntoOneCallAndDeduplicatesTexts() throws Exception {
+        CompletableFuture<float[]> first = batcher.submit("馆藏");
+        CompletableFuture<float[]> second = batcher.submit("开放时间");
+        CompletableFuture<float[]> duplicate = batcher.submit("馆藏");
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsExactly(2f, 1f);
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(4f, 1f);
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isSameAs(first.get());
+        verify(embeddingModel).embed(List.of("馆藏", "开放时间"));
+        assertThat(meterRegistry.get("rag.query.embedding.batch.queries").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    void sendsFullBatchWithoutWaitingForWindow() throws Exception {
+        ReflectionTestUtils.setField(batcher, "windowMs", 60_000L);
+        ReflectionTestUtils.setField(batcher, "maxSize", 2);
+
+        CompletableFuture<float[]> first = batcher.submit("a");
+        CompletableFuture<float[]> second = batcher.submit("bb");
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).containsExactly(1f, 1f);
+        assertThat(second.get(5, TimeUnit.SECONDS)).containsExactly(2f, 1f);
+        verify(embeddingModel).embed(List.of("a", "bb"));
+    }
+
+    @Test
+    void failsEveryQueryInBatchWhenEmbeddingFails() {
+        when(embeddingModel.embed(anyList())).thenThrow(new IllegalStateException("ollama down"));
+
+        CompletableFuture<float[]> first = batcher.submit("a");
+        CompletableFuture<float[]> second = batcher.submit("b");
+
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class).hasRootCauseMessage("ollama down");
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class).hasRootCauseMessage("ollama down");
+    }
+
+    @Test
+    void embedTimesOutWhenModelHangs() {
+        CountDownLatch release = new CountDownLatch(1);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation -> {
+            release.await();
+            return List.of(new float[]{1f});
+        });
+        ReflectionTestUtils.setField(batcher, "windowMs", 0L);
+        ReflectionTestUtils.setField(batcher, "timeoutMs", 100L);
+
+        try {
+            assertThatThrownBy(() -> batcher.embed("a"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("超时");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void embedsDirectlyWhenDisabled() {
+        ReflectionTestUtils.setField(batcher, "enabled", false);
+        when(embeddingModel.embed("a")).thenReturn(new float[]{9f});
+
+        assertThat(batcher.embed("a")).containsExactly(9f);
+        verify(embeddingModel, never()).embed(anyList());
+    }
+
+    @Test
+    void rejectsQueriesAfterShutdown() {
+        batcher.shutdown();
+
+        assertThat(batcher.submit("a")).isCompletedExceptionally();
+        verify(embeddingModel, never()).embed(anyList());
+    }
+}
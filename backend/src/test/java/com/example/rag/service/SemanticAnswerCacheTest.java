@@ -0,0 +1,125 @@
+package com.example.rag.service;
+
+import com.example.rag.dto.SmartQueryResponse;
+import com.example.rag.model.DocumentChunk;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SemanticAnswerCacheTest {
+
+    private static final float[] QUESTION = {1f, 0f, 0f};
+    private static final float[] SIMILAR_QUESTION = {1f, 0.05f, 0f};
+    private static final float[] OTHER_QUESTION = {0f, 1f, 0f};
+    private static final long VERSION = 3L;
+
+    private SemanticAnswerCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new SemanticAnswerCache(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "minSimilarity", 0.97);
+        ReflectionTestUtils.setField(cache, "maxGroups", 10);
+        ReflectionTestUtils.setField(cache, "maxEntriesPerGroup", 8);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 3600L);
+    }
+
+    @Test
+    void hitsForSimilarQuestionWithSameChunks() {
+        List<DocumentChunk> chunks = List.of(chunk("doc-1", 0), chunk("doc-2", 3));
+        SmartQueryResponse response = answer("回答");
+        cache.put(QUESTION, chunks, response, cache.generation(), VERSION);
+
+        assertThat(cache.get(SIMILAR_QUESTION, List.of(chunks.get(1), chunks.get(0)), VERSION)).isSameAs(response);
+    }
+
+    @Test
+    void missesForDifferentChunksOrDistantQuestion() {
+        cache.put(QUESTION, List.of(chunk("doc-1", 0)), answer("回答"), cache.generation(), VERSION);
+
+        assertThat(cache.get(QUESTION, List.of(chunk("doc-1", 1)), VERSION)).isNull();
+        assertThat(cache.get(QUESTION, List.of(), VERSION)).isNull();
+        assertThat(cache.get(OTHER_QUESTION, List.of(chunk("doc-1", 0)), VERSION)).isNull();
+    }
+
+    @Test
+    void documentChangeEvictsOnlyDependentAnswers() {
+        cache.put(QUESTION, List.of(chunk("doc-1", 0)), answer("一"), cache.generation(), VERSION);
+        cache.put(QUESTION, List.of(chunk("doc-2", 0)), answer("二"), cache.generation(), VERSION);
+
+        cache.onDocumentIndexChanged(new DocumentIndexChangedEvent("doc-1"));
+
+        assertThat(cache.get(QUESTION, List.of(chunk("doc-1", 0)), VERSION)).isNull();
+        assertThat(cache.get(QUESTION, List.of(chunk("doc-2", 0)), VERSION)).isNotNull();
+    }
+
+    @Test
+    void dropsAnswersGeneratedBeforeEviction() {
+        long generation = cache.generation();
+        cache.evictDocument("doc-1");
+
+        cache.put(QUESTION, List.of(chunk("doc-1", 0)), answer("过期"), generation, VERSION);
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void corpusChangeMakesEarlierAnswersMiss() {
+        List<DocumentChunk> chunks = List.of(chunk("doc-1", 0));
+        cache.put(QUESTION, chunks, answer("回答"), cache.generation(), VERSION);
+
+        // 其他节点入库文档后语料版本递增，相同分块的回答也可能已经过时
+        assertThat(cache.get(QUESTION, chunks, VERSION + 1)).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void dropsAnswersGeneratedUnderOlderCorpusVersion() {
+        List<DocumentChunk> chunks = List.of(chunk("doc-1", 0));
+        assertThat(cache.get(OTHER_QUESTION, chunks, VERSION + 1)).isNull();
+
+        cache.put(QUESTION, chunks, answer("过期"), cache.generation(), VERSION);
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void doesNotCacheErrorsOrIrrelevantAnswers() {
+        long generation = cache.generation();
+        cache.put(QUESTION, List.of(), SmartQueryResponse.builder()
+                .answer("抱歉，生成回答时发生了错误。")
+                .sourceType(SmartQueryResponse.SourceType.ERROR)
+                .relevant(false)
+                .build(), generation, VERSION);
+        cache.put(QUESTION, List.of(), SmartQueryResponse.builder()
+                .answer("抱歉，无法处理您的问题，请稍后重试。")
+                .sourceType(SmartQueryResponse.SourceType.ERROR)
+                .relevant(true)
+                .build(), generation, VERSION);
+        cache.put(QUESTION, List.of(), answer(" "), generation, VERSION);
+
+        assertThat(cache.size()).isZero();
+    }
+
+    private static DocumentChunk chunk(String documentId, int index) {
+        return DocumentChunk.builder()
+                .id(documentId + "_" + index)
+                .documentId(documentId)
+                .chunkIndex(index)
+                .build();
+    }
+
+    private static SmartQueryResponse answer(String text) {
+        return SmartQueryResponse.builder()
+                .answer(text)
+                .sourceType(SmartQueryResponse.SourceType.LIBRARY)
+                .relevant(true)
+                .build();
+    }
+}
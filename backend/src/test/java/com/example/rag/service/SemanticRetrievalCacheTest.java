@@ -0,0 +1,110 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SemanticRetrievalCacheTest {
+
+    private CorpusVersionService corpusVersionService;
+    private SemanticRetrievalCache cache;
+
+    @BeforeEach
+    void setUp() {
+        corpusVersionService = mock(CorpusVersionService.class);
+        when(corpusVersionService.currentVersion()).thenReturn(7L);
+        cache = new SemanticRetrievalCache(new SimpleMeterRegistry(), corpusVersionService);
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "maxDistance", 0.05);
+        ReflectionTestUtils.setField(cache, "maxEntries", 2);
+        ReflectionTestUtils.setField(cache, "ttlSeconds", 600L);
+        ReflectionTestUtils.setField(cache, "lshTables", 8);
+        ReflectionTestUtils.setField(cache, "lshBits", 4);
+    }
+
+    @Test
+    void hitsForNearbyVectorWithSameParams() {
+        put(new float[]{1f, 0f, 0f}, "k=3", "a");
+
+        assertThat(get(new float[]{1f, 0.01f, 0f}, "k=3")).containsExactly("a");
+    }
+
+    @Test
+    void missesForDifferentParamsOrDistantVector() {
+        put(new float[]{1f, 0f, 0f}, "k=3", "a");
+
+        assertThat(get(new float[]{1f, 0f, 0f}, "k=5")).isNull();
+        assertThat(get(new float[]{0f, 1f, 0f}, "k=3")).isNull();
+    }
+
+    @Test
+    void documentChangeInvalidatesAllEntries() {
+        put(new float[]{1f, 0f, 0f}, "k=3", "a");
+
+        cache.onDocumentIndexChanged(new DocumentIndexChangedEvent("doc-1"));
+
+        assertThat(cache.size()).isZero();
+        assertThat(get(new float[]{1f, 0f, 0f}, "k=3")).isNull();
+    }
+
+    @Test
+    void corpusChangeOnAnotherNodeMakesEntriesMiss() {
+        put(new float[]{1f, 0f, 0f}, "k=3", "a");
+
+        // 其他节点入库或删除文档后共享的版本号递增，本节点没有收到事件
+        when(corpusVersionService.currentVersion()).thenReturn(8L);
+
+        assertThat(get(new float[]{1f, 0f, 0f}, "k=3")).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void dropsResultsRetrievedUnderOlderCorpusVersion() {
+        long version = cache.corpusVersion();
+        when(corpusVersionService.currentVersion()).thenReturn(8L);
+        assertThat(get(new float[]{0f, 1f, 0f}, "k=3")).isNull();
+
+        cache.put(new float[]{1f, 0f, 0f}, "k=3", List.of("stale"), cache.generation(), version);
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void dropsResultsRetrievedBeforeInvalidation() {
+        long version = cache.corpusVersion();
+        long generation = cache.generation();
+        cache.invalidateAll();
+
+        cache.put(new float[]{1f, 0f, 0f}, "k=3", List.of("stale"), generation, version);
+
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondLimit() {
+        put(new float[]{1f, 0f, 0f}, "k=3", "a");
+        put(new float[]{0f, 1f, 0f}, "k=3", "b");
+        get(new float[]{1f, 0f, 0f}, "k=3");
+
+        put(new float[]{0f, 0f, 1f}, "k=3", "c");
+
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(get(new float[]{1f, 0f, 0f}, "k=3")).isNotNull();
+        assertThat(get(new float[]{0f, 1f, 0f}, "k=3")).isNull();
+    }
+
+    private void put(float[] vector, String params, String value) {
+        cache.put(vector, params, List.of(value), cache.generation(), cache.corpusVersion());
+    }
+
+    private List<String> get(float[] vector, String params) {
+        return cache.get(vector, params, cache.corpusVersion());
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.rag.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamAdmissionServiceTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private StreamAdmissionService admissionService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        admissionService = new StreamAdmissionService(meterRegistry, 2, 1, 2);
+        ReflectionTestUtils.setField(admissionService, "acquireTimeoutMs", 10L);
+    }
+
+    @Test
+    void rejectsBeyondRouteLimitAndCountsRejections() {
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.LIBRARY)).isTrue();
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.LIBRARY)).isTrue();
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.LIBRARY)).isFalse();
+
+        assertThat(meterRegistry.get("rag.stream.active").tag("route", "library").gauge().value()).isEqualTo(2.0);
+        assertThat(meterRegistry.get("rag.stream.rejected").tag("route", "library").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void routesHaveIndependentLimits() {
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.GENERAL)).isTrue();
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.GENERAL)).isFalse();
+
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.LIBRARY)).isTrue();
+    }
+
+    @Test
+    void releaseFreesPermit() {
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.GENERAL)).isTrue();
+
+        admissionService.release(StreamAdmissionService.Route.GENERAL);
+
+        assertThat(admissionService.tryAcquire(StreamAdmissionService.Route.GENERAL)).isTrue();
+        assertThat(meterRegistry.get("rag.stream.active").tag("route", "general").gauge().value()).isEqualTo(1.0);
+        assertThat(meterRegistry.get("rag.stream.waiting").tag("route", "general").gauge().value()).isZero();
+    }
+
+    @Test
+    void rejectsOrchestrationBeyondLimitWithoutWaiting() {
+        assertThat(admissionService.tryStart()).isTrue();
+        assertThat(admissionService.tryStart()).isTrue();
+
+        assertThat(admissionService.tryStart()).isFalse();
+        assertThat(meterRegistry.get("rag.stream.rejected").tag("route", "orchestration").counter().count())
+                .isEqualTo(1.0);
+
+        admissionService.finish();
+        assertThat(admissionService.tryStart()).isTrue();
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.rag.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamBroadcastTest {
+
+    /**
+     * 同步投递，事件在 send 返回前已写给订阅者
+     */
+    private final StreamBroadcast broadcast = new StreamBroadcast(Runnable::run);
+
+    @Test
+    void lateSubscriberReplaysSentEventsThenReceivesNewOnes() throws IOException {
+        RecordingEmitter first = new RecordingEmitter();
+        broadcast.subscribe(first);
+        broadcast.send("a");
+        broadcast.send("b");
+
+        RecordingEmitter late = new RecordingEmitter();
+        broadcast.subscribe(late);
+        broadcast.send("c");
+        broadcast.complete();
+
+        assertThat(first.events).containsExactly("a", "b", "c");
+        assertThat(late.events).containsExactly("a", "b", "c");
+        assertThat(first.completed).isTrue();
+        assertThat(late.completed).isTrue();
+    }
+
+    @Test
+    void subscriberAfterCompletionGetsFullReplay() throws IOException {
+        broadcast.subscribe(new RecordingEmitter());
+        broadcast.send("a");
+        broadcast.complete();
+
+        RecordingEmitter late = new RecordingEmitter();
+        broadcast.subscribe(late);
+
+        assertThat(late.events).containsExactly("a");
+        assertThat(late.completed).isTrue();
+    }
+
+    @Test
+    void errorIsPropagatedToSubscribers() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        broadcast.subscribe(emitter);
+        IllegalStateException error = new IllegalStateException("boom");
+
+        broadcast.completeWithError(error);
+
+        assertThat(emitter.error).isSameAs(error);
+    }
+
+    @Test
+    void finishCallbacksRunOnceAfterCompletion() {
+        AtomicInteger finished = new AtomicInteger();
+        broadcast.subscribe(new RecordingEmitter());
+        broadcast.onFinish(finished::incrementAndGet);
+
+        broadcast.complete();
+        broadcast.complete();
+        broadcast.onFinish(finished::incrementAndGet);
+
+        assertThat(finished).hasValue(2);
+    }
+
+    @Test
+    void lastSubscriberLeavingCancelsBroadcast() throws IOException {
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        AtomicInteger cancelled = new AtomicInteger();
+        AtomicInteger finished = new AtomicInteger();
+        broadcast.subscribe(first);
+        broadcast.subscribe(second);
+        broadcast.onCancel(cancelled::incrementAndGet);
+        broadcast.onFinish(finished::incrementAndGet);
+
+        first.timeout();
+        assertThat(broadcast.isCancelled()).isFalse();
+        assertThat(broadcast.subscriberCount()).isEqualTo(1);
+
+        second.fail(new IOException("client gone"));
+
+        assertThat(broadcast.isCancelled()).isTrue();
+        assertThat(cancelled).hasValue(1);
+        assertThat(finished).hasValue(1);
+        broadcast.send("ignored");
+        assertThat(second.events).isEmpty();
+    }
+
+    @Test
+    void failedDeliveryRemovesOnlyThatSubscriber() throws IOException {
+        RecordingEmitter healthy = new RecordingEmitter();
+        RecordingEmitter broken = new RecordingEmitter();
+        broken.failOnSend = true;
+        broadcast.subscribe(healthy);
+        broadcast.subscribe(broken);
+
+        broadcast.send("a");
+
+        assertThat(broadcast.subscriberCount()).isEqualTo(1);
+        assertThat(broadcast.isCancelled()).isFalse();
+        assertThat(healthy.events).containsExactly("a");
+    }
+
+    @Test
+    void completionAfterFinishDoesNotCancel() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        AtomicInteger cancelled = new AtomicInteger();
+        broadcast.subscribe(emitter);
+        broadcast.onCancel(cancelled::incrementAndGet);
+
+        broadcast.complete();
+        emitter.runCompletion();
+
+        assertThat(broadcast.isCancelled()).isFalse();
+        assertThat(cancelled).hasValue(0);
+    }
+
+    /**
+     * 记录收到的事件，并可手动触发超时、出错和完成回调
+     */
+    private static final class RecordingEmitter extends SseEmitter {
+        private final List<Object> events = new ArrayList<>();
+        private boolean completed;
+        private Throwable error;
+        private boolean failOnSend;
+        private Runnable timeoutCallback;
+        private Consumer<Throwable> errorCallback;
+        private Runnable completionCallback;
+
+        @Override
+        public void send(Object object) throws IOException {
+            if (failOnSend) {
+                throw new IOException("broken pipe");
+            }
+            events.add(object);
+        }
+
+        @Override
+        public void complete() {
+            completed = true;
+        }
+
+        @Override
+        public void completeWithError(Throwable ex) {
+            error = ex;
+        }
+
+        @Override
+        public void onTimeout(Runnable callback) {
+            timeoutCallback = callback;
+        }
+
+        @Override
+        public void onError(Consumer<Throwable> callback) {
+            errorCallback = callback;
+        }
+
+        @Override
+        public void onCompletion(Runnable callback) {
+            completionCallback = callback;
+        }
+
+        void timeout() {
+            timeoutCallback.run();
+        }
+
+        void fail(Throwable ex) {
+            errorCallback.accept(ex);
+        }
+
+        void runCompletion() {
+            completionCallback.run();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.rag.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块器基准测试
+ *
+ * 分别用无分隔符、英文、中文文本测 1MB 与 10MB 输入的分块耗时，耗时应随输入大小线性增长。
+ * 运行：mvn test-compile 后执行本类的 main 方法（测试类路径），或
+ * {@code mvn exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.example.rag.service.TextChunkerBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextChunkerBenchmark {
+
+    @Param({"1048576", "10485760"})
+    public int size;
+
+    @Param({"no-delimiter", "english", "chinese"})
+    public String text;
+
+    private String input;
+
+    @Setup
+    public void setUp() {
+        String unit = switch (text) {
+            case "english" -> "The quick brown fox jumps over the lazy dog. ";
+            case "chinese" -> "图书馆提供文献检索与馆藏借阅服务，读者可以在线查阅期刊论文。";
+            default -> "abcdefghijklmnopqrstuvwxyz";
+        };
+        StringBuilder builder = new StringBuilder(size + unit.length());
+        while (builder.length() < size) {
+            builder.append(unit);
+        }
+        input = builder.substring(0, size);
+    }
+
+    @Benchmark
+    public int split(Blackhole blackhole) throws IOException {
+        return new TextChunker(1000, 200).split(new StringReader(input),
+                (content, start, end) -> blackhole.consume(content));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextChunkerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
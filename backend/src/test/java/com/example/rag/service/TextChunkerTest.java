@@ -0,0 +1,126 @@
+package com.example.rag.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TextChunkerTest {
+
+    @Test
+    void findBestSplitPointPrefersDelimitersByPriority() {
+        assertThat(TextChunker.findBestSplitPoint("一二三。四五！六七？八", 0, 10)).isEqualTo(4);
+        assertThat(TextChunker.findBestSplitPoint("一二三！四五？六七\n八", 0, 10)).isEqualTo(4);
+        assertThat(TextChunker.findBestSplitPoint("一二三？四五\n六七 八", 0, 10)).isEqualTo(4);
+        assertThat(TextChunker.findBestSplitPoint("abc\ndef ghi", 0, 10)).isEqualTo(4);
+        assertThat(TextChunker.findBestSplitPoint("abc def ghi", 0, 10)).isEqualTo(8);
+    }
+
+    @Test
+    void findBestSplitPointUsesLastFullStopInWindow() {
+        assertThat(TextChunker.findBestSplitPoint("一。二。三四", 0, 5)).isEqualTo(4);
+    }
+
+    @Test
+    void findBestSplitPointFallsBackToMaxEndWithoutDelimiter() {
+        assertThat(TextChunker.findBestSplitPoint("abcdefghij", 2, 8)).isEqualTo(8);
+    }
+
+    @Test
+    void findBestSplitPointIgnoresDelimitersBeforeMinEnd() {
+        assertThat(TextChunker.findBestSplitPoint("ab。cdefghij", 4, 9)).isEqualTo(9);
+    }
+
+    @Test
+    void findBestSplitPointOnlyInspectsWindow() {
+        CountingSequence text = new CountingSequence("x".repeat(1_000_000));
+
+        TextChunker.findBestSplitPoint(text, 999_000, 999_500);
+
+        assertThat(text.reads).isEqualTo(501);
+    }
+
+    @Test
+    void splitCoversTextWithOverlapAndPositions() throws Exception {
+        String text = "第一句话。".repeat(200);
+        List<int[]> positions = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+
+        int count = new TextChunker(100, 20).split(new StringReader(text), (content, start, end) -> {
+            contents.add(content);
+            positions.add(new int[]{start, end});
+        });
+
+        assertThat(count).isEqualTo(contents.size()).isGreaterThan(1);
+        assertThat(positions.get(0)[0]).isZero();
+        assertThat(positions.get(positions.size() - 1)[1]).isEqualTo(text.length());
+        for (int i = 0; i < contents.size(); i++) {
+            int[] range = positions.get(i);
+            assertThat(contents.get(i)).isEqualTo(text.substring(range[0], range[1]));
+            assertThat(contents.get(i)).endsWith("。");
+            if (i > 0) {
+                assertThat(range[0]).isLessThan(positions.get(i - 1)[1]);
+            }
+        }
+    }
+
+    @Test
+    void splitHandlesTextLongerThanWindowWithoutDelimiters() throws Exception {
+        String text = "a".repeat(300_000);
+        List<int[]> positions = new ArrayList<>();
+
+        new TextChunker(1000, 100).split(new StringReader(text),
+                (content, start, end) -> positions.add(new int[]{start, end}));
+
+        assertThat(positions.get(positions.size() - 1)[1]).isEqualTo(text.length());
+        for (int i = 1; i < positions.size(); i++) {
+            assertThat(positions.get(i)[0]).isEqualTo(positions.get(i - 1)[1] - 100);
+        }
+    }
+
+    @Test
+    void splitSkipsBlankChunks() throws Exception {
+        int count = new TextChunker(100, 10).split(new StringReader("   \n\n   "), (content, start, end) -> {
+        });
+
+        assertThat(count).isZero();
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThatThrownBy(() -> new TextChunker(100, 100)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TextChunker(0, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 记录 charAt 调用次数的文本
+     */
+    private static final class CountingSequence implements CharSequence {
+        private final String text;
+        private int reads;
+
+        private CountingSequence(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            reads++;
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+    }
+}